@@ -0,0 +1,102 @@
+package learners.benchmarks;
+
+import learners.core.eval.CSVDataset;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loading a csv file into a dataset.
+ * The {@code rows} counter reports the loading throughput in rows per second; {@link #scannerBaseline} is the
+ * former Scanner and String.split loader, kept for comparison.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CSVDatasetBenchmark {
+
+    @Param({"1000", "100000"})
+    int rows;
+
+    @Param({"10", "100"})
+    int columns;
+
+    private File file;
+
+    @Setup
+    public void setup() throws IOException {
+        file = File.createTempFile("bench", ".csv");
+        Random random = new Random(1);
+        try (PrintWriter writer = new PrintWriter(file)) {
+            for(int j=0; j<columns; j++){
+                writer.print("a" + j + ",");
+            }
+            writer.println("label");
+            for(int i=0; i<rows; i++){
+                for(int j=0; j<columns; j++){
+                    writer.print(String.format("%.6f", random.nextGaussian()));
+                    writer.print(',');
+                }
+                writer.println("c" + random.nextInt(10));
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        file.delete();
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Rows {
+        public long rows;
+    }
+
+    @Benchmark
+    public CSVDataset fromFile(Rows counter) throws IOException {
+        CSVDataset dataset = new CSVDataset(true);
+        dataset.fromFile(file.getPath(), null);
+        counter.rows += dataset.getInputs().length;
+        return dataset;
+    }
+
+    @Benchmark
+    public CSVDataset fromFileParallel(Rows counter) throws IOException {
+        CSVDataset dataset = new CSVDataset(true);
+        dataset.fromFile(file.getPath(), null, Runtime.getRuntime().availableProcessors());
+        counter.rows += dataset.getInputs().length;
+        return dataset;
+    }
+
+    @Benchmark
+    public List<double[]> scannerBaseline(Rows counter) throws IOException {
+        List<double[]> inputs = new ArrayList<>();
+        try (Scanner scanner = new Scanner(file)) {
+            int numCols = scanner.nextLine().split(",").length;
+            while (scanner.hasNext()){
+                String toks[] = scanner.nextLine().split(",");
+                if(toks.length != numCols){
+                    throw new IOException("Malformatted CSV file: unequal number of columns.");
+                }
+                double cur[] = new double[toks.length - 1];
+                for(int i=0; i<cur.length; i++){
+                    cur[i] = Double.parseDouble(toks[i]);
+                }
+                inputs.add(cur);
+            }
+        }
+        counter.rows += inputs.size();
+        return inputs;
+    }
+}
@@ -0,0 +1,46 @@
+package learners.benchmarks;
+
+import learners.core.normalization.FeatureDescriptors;
+import learners.core.normalization.StandardizedDescriptors;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fitting and applying the normalization of a whole dataset.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FeatureDescriptorsBenchmark {
+
+    @Param({"1000", "100000"})
+    int rows;
+
+    @Param({"10", "100"})
+    int width;
+
+    private double[][] attributes;
+    private FeatureDescriptors descriptors;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(1);
+        attributes = new double[rows][width];
+        for(double[] row : attributes){
+            for(int j=0; j<width; j++){
+                row[j] = random.nextGaussian();
+            }
+        }
+        descriptors = new StandardizedDescriptors();
+    }
+
+    @Benchmark
+    public double[][] normalize() {
+        return descriptors.normalize(attributes);
+    }
+}
@@ -0,0 +1,55 @@
+package learners.benchmarks;
+
+import learners.core.eval.CSVDataset;
+import learners.core.eval.LabelDist;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Matching a network output to the closest label.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LabelDistBenchmark {
+
+    @Param({"3", "30", "300"})
+    int classes;
+
+    private LabelDist labels;
+    private double[] output;
+
+    @Setup
+    public void setup() throws IOException {
+        StringBuilder csv = new StringBuilder("x,label\n");
+        for(int i=0; i<classes; i++){
+            csv.append(i).append(",c").append(i).append('\n');
+        }
+        CSVDataset dataset = new CSVDataset(true);
+        dataset.fromInputStream(new ByteArrayInputStream(csv.toString().getBytes(StandardCharsets.UTF_8)), null);
+        labels = dataset.getLabels();
+        Random random = new Random(1);
+        output = new double[classes];
+        for(int i=0; i<classes; i++){
+            output[i] = random.nextDouble();
+        }
+    }
+
+    @Benchmark
+    public String getBestMatch() {
+        return labels.getBestMatch(output);
+    }
+
+    @Benchmark
+    public int getBestMatchIndex() {
+        return labels.getBestMatchIndex(output);
+    }
+}
@@ -0,0 +1,57 @@
+package learners.benchmarks;
+
+import learners.perceptrons.ActivationFunction;
+import learners.perceptrons.MultiLayerPerceptron;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One training pass over a block of rows, per row and as a single mini-batch.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MultiLayerPerceptronBenchmark {
+
+    @Param({"64", "512"})
+    int width;
+
+    @Param({"64", "1024"})
+    int rows;
+
+    private MultiLayerPerceptron network;
+    private double[][] inputs, targets;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(1);
+        network = new MultiLayerPerceptron(new int[]{width, width, width, 10}, new ActivationFunction[]{ActivationFunction.TANH});
+        inputs = new double[rows][width];
+        targets = new double[rows][10];
+        for(int i=0; i<rows; i++){
+            for(int j=0; j<width; j++){
+                inputs[i][j] = random.nextGaussian();
+            }
+            targets[i][random.nextInt(10)] = 1;
+        }
+    }
+
+    @Benchmark
+    public MultiLayerPerceptron train() {
+        for(int i=0; i<rows; i++){
+            network.train(inputs[i], targets[i], 0.01);
+        }
+        return network;
+    }
+
+    @Benchmark
+    public MultiLayerPerceptron trainBatch() {
+        network.trainBatch(inputs, targets, 0, rows, 0.01);
+        return network;
+    }
+}
@@ -0,0 +1,66 @@
+package learners.benchmarks;
+
+import learners.perceptrons.ActivationFunction;
+import learners.perceptrons.MultiLayerPerceptron;
+import learners.perceptrons.NeuralNetwork;
+import learners.perceptrons.Workspace;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Inference through a trained network: one instance at a time, allocation-free, and as a batch.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NeuralNetworkBenchmark {
+
+    @Param({"64", "512"})
+    int width;
+
+    @Param({"1024"})
+    int rows;
+
+    private MultiLayerPerceptron network;
+    private double[][] inputs;
+    private double[] output;
+    private Workspace workspace;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(1);
+        network = new MultiLayerPerceptron(new int[]{width, width, width, 10}, new ActivationFunction[]{ActivationFunction.TANH});
+        inputs = new double[rows][width];
+        double[][] targets = new double[rows][10];
+        for(int i=0; i<rows; i++){
+            for(int j=0; j<width; j++){
+                inputs[i][j] = random.nextGaussian();
+            }
+            targets[i][random.nextInt(10)] = 1;
+        }
+        network.trainNetwork(inputs, targets, 1, 0.01, NeuralNetwork.FeatureDescriptionOptions.STANDARDIZED, NeuralNetwork.OutputMap.SCALED, 32);
+        output = new double[10];
+        workspace = network.newWorkspace();
+    }
+
+    @Benchmark
+    public double[] process() {
+        return network.process(inputs[0]);
+    }
+
+    @Benchmark
+    public double[] processWithWorkspace() {
+        network.process(inputs[0], output, workspace);
+        return output;
+    }
+
+    @Benchmark
+    public double[][] processBatch() {
+        return network.processBatch(inputs);
+    }
+}
@@ -0,0 +1,41 @@
+package learners.benchmarks;
+
+import learners.perceptrons.ActivationFunction;
+import learners.perceptrons.Perceptron;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Forward pass of a single layer.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PerceptronBenchmark {
+
+    @Param({"64", "512"})
+    int width;
+
+    private Perceptron perceptron;
+    private double[] input;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(1);
+        perceptron = new Perceptron("bench", width, width, ActivationFunction.TANH);
+        input = new double[width];
+        for(int i=0; i<width; i++){
+            input[i] = random.nextGaussian();
+        }
+    }
+
+    @Benchmark
+    public double[] compute() {
+        return perceptron.compute(input);
+    }
+}
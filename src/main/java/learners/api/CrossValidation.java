@@ -0,0 +1,246 @@
+package learners.api;
+
+import learners.core.eval.Dataset;
+import learners.core.eval.DatasetPartition;
+import learners.core.eval.Score;
+import learners.perceptrons.NeuralNetwork;
+import learners.perceptrons.TrainingOptions;
+import learners.perceptrons.Workspace;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * K-fold cross-validation, training and scoring the folds concurrently.
+ * <p>The folds are views over the dataset, see {@link DatasetPartition#kFold(Dataset, int, long)}, and each fold
+ * trains its own network on its own thread.</p>
+ */
+public class CrossValidation {
+    private static final int READ_BLOCK = 1024; /*instances read at once when scoring*/
+
+    /**
+     * Builds an untrained network for each fold.
+     */
+    public interface NetworkFactory {
+        NeuralNetwork newNetwork();
+    }
+
+    private int folds = 10;
+    private long seed = 0;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    private int numEpochs = 100;
+    private double learningRate = 0.1;
+    private NeuralNetwork.FeatureDescriptionOptions attributesOptions = NeuralNetwork.FeatureDescriptionOptions.STANDARDIZED;
+    private NeuralNetwork.OutputMap outputMap = NeuralNetwork.OutputMap.SCALED;
+    private TrainingOptions trainingOptions = new TrainingOptions();
+    private double margin = 0.5;
+
+    public CrossValidation setFolds(int folds) {
+        this.folds = folds;
+        return this;
+    }
+
+    public CrossValidation setSeed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    /**
+     * Set the number of folds trained at the same time.
+     * @param parallelism the number of threads; the number of processors by default
+     * @return this cross-validation
+     */
+    public CrossValidation setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    /**
+     * Set how each fold's network is trained.
+     * @param numEpochs number of training epochs
+     * @param learningRate the network's learning rate
+     * @param attributesOptions the attribute normalization
+     * @param outputMap the shape of the output result
+     * @param trainingOptions the batch size and parallelism of each fold's training loop
+     * @return this cross-validation
+     */
+    public CrossValidation setTraining(int numEpochs, double learningRate, NeuralNetwork.FeatureDescriptionOptions attributesOptions, NeuralNetwork.OutputMap outputMap, TrainingOptions trainingOptions) {
+        this.numEpochs = numEpochs;
+        this.learningRate = learningRate;
+        this.attributesOptions = attributesOptions;
+        this.outputMap = outputMap;
+        this.trainingOptions = trainingOptions;
+        return this;
+    }
+
+    /**
+     * Set the error margin within which a prediction counts as correct, see {@link Score}.
+     * @param margin the margin
+     * @return this cross-validation
+     */
+    public CrossValidation setMargin(double margin) {
+        this.margin = margin;
+        return this;
+    }
+
+    /**
+     * Train and score a network on every fold of a dataset.
+     * @param dataset a dataset held in memory
+     * @param factory builds the network of each fold
+     * @return the scores of each fold and of all folds together
+     * @throws IOException if a fold fails to train
+     */
+    public Result run(final Dataset dataset, final NetworkFactory factory) throws IOException {
+        DatasetPartition[] partitions = DatasetPartition.kFold(dataset, folds, seed);
+        List<Callable<Fold>> tasks = new ArrayList<>(partitions.length);
+        for(final DatasetPartition partition : partitions){
+            tasks.add(new Callable<Fold>() {
+                @Override
+                public Fold call() throws IOException {
+                    NeuralNetwork network = factory.newNetwork();
+                    network.trainNetwork(partition.getTrainingSet(), numEpochs, learningRate, attributesOptions, outputMap, trainingOptions);
+                    network.freeze();
+                    return new Fold(network, partition.getTestingSet(), new Score(dataset.getLabels(), margin));
+                }
+            });
+        }
+        List<Fold> ret = invokeAll(tasks);
+        Score aggregate = new Score(dataset.getLabels(), margin);
+        for(Fold fold : ret){
+            aggregate.merge(fold.score);
+        }
+        return new Result(ret, aggregate);
+    }
+
+    private List<Fold> invokeAll(List<Callable<Fold>> tasks) throws IOException {
+        final AtomicInteger count = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(parallelism, tasks.size())), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "cross-validation-" + count.getAndIncrement());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        try {
+            List<Fold> ret = new ArrayList<>(tasks.size());
+            for(Future<Fold> future : executor.invokeAll(tasks)){
+                ret.add(future.get());
+            }
+            return ret;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while cross-validating.");
+        } catch (ExecutionException e) {
+            if(e.getCause() instanceof IOException){
+                throw (IOException)e.getCause();
+            }
+            if(e.getCause() instanceof RuntimeException){
+                throw (RuntimeException)e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * A network trained on one fold's training set, and its score on the fold.
+     */
+    public static final class Fold {
+        private final NeuralNetwork network;
+        private final Score score;
+        private final int size;
+
+        private Fold(NeuralNetwork network, Dataset testingSet, Score score) throws IOException {
+            this.network = network;
+            this.score = score;
+            Workspace workspace = network.newWorkspace();
+            double[][] inputs = new double[READ_BLOCK][], targets = new double[READ_BLOCK][];
+            testingSet.rewind();
+            int total = 0;
+            double[] output = new double[network.numOutputNodes()];
+            for(int n; (n = testingSet.next(inputs, targets)) > 0; total += n){
+                for(int r=0; r<n; r++){
+                    network.process(inputs[r], output, workspace);
+                    score.recordResult(targets[r], output, false);
+                }
+            }
+            size = total;
+        }
+
+        public NeuralNetwork getNetwork() {
+            return network;
+        }
+
+        public Score getScore() {
+            return score;
+        }
+
+        /**
+         * Get the number of instances in the fold.
+         * @return the size of the testing set
+         */
+        public int getSize() {
+            return size;
+        }
+    }
+
+    /**
+     * The folds of a cross-validation and their aggregate score.
+     */
+    public static final class Result {
+        private final List<Fold> folds;
+        private final Score aggregate;
+
+        private Result(List<Fold> folds, Score aggregate) {
+            this.folds = folds;
+            this.aggregate = aggregate;
+        }
+
+        public List<Fold> getFolds() {
+            return folds;
+        }
+
+        /**
+         * Get the score of every fold's predictions together.
+         * @return the aggregate score
+         */
+        public Score getAggregate() {
+            return aggregate;
+        }
+
+        /**
+         * Get the mean of the folds' accuracies.
+         * @return the mean accuracy
+         */
+        public double getMeanAccuracy() {
+            double sum = 0;
+            for(Fold fold : folds){
+                sum += fold.score.getAccuracy();
+            }
+            return sum / folds.size();
+        }
+
+        /**
+         * Get the sample standard deviation of the folds' accuracies.
+         * @return the standard deviation of the accuracy
+         */
+        public double getAccuracySTD() {
+            double mean = getMeanAccuracy(), sum = 0;
+            for(Fold fold : folds){
+                sum += (fold.score.getAccuracy() - mean) * (fold.score.getAccuracy() - mean);
+            }
+            return Math.sqrt(sum / (folds.size() - 1));
+        }
+    }
+}
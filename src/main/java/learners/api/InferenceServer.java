@@ -0,0 +1,461 @@
+package learners.api;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A local TCP server classifying instances in micro-batches.
+ * <p>Clients send one instance per line, as comma-separated attribute values, and receive one line per instance in
+ * the same order: the best matching label, or {@code ERR} and a message. A client may send several lines before
+ * reading the responses.</p>
+ * <p>Requests from all connections are queued and a single batching thread takes them in batches: a batch is closed
+ * once it holds {@link #setMaxBatchSize(int)} requests, once its first request has waited
+ * {@link #setMaxLatency(long)} microseconds, or as soon as the queue is empty and every open connection has a request
+ * in flight, so that a lone client is not delayed. The batch is classified in one pass through the network, see
+ * {@link NNClassifier#classifyBatchIndices(double[], int)}, and the responses are handed to the connections.</p>
+ * <p>Each connection has a reading and a writing thread, so a client that stops reading its responses only stalls
+ * itself: once {@link #setQueueCapacity(int)} of its responses are unwritten, its requests are no longer read.</p>
+ */
+public class InferenceServer implements Closeable {
+    private final NNClassifier classifier;
+    private int maxBatchSize = 64;
+    private long maxLatencyNanos = TimeUnit.MICROSECONDS.toNanos(200);
+    private int queueCapacity = 4096;
+    private BlockingQueue<Request> queue;
+    private ServerSocket serverSocket;
+    private Thread acceptor, batcher;
+    private final Set<Connection> connections = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger connectionCount = new AtomicInteger();
+    private final LongAdder requests = new LongAdder(), batches = new LongAdder();
+    private static final String END = new String("END"); /*marks the end of a connection's responses, compared by identity*/
+    private volatile boolean closed;
+
+    /**
+     * Construct a server for a classifier.
+     * @param classifier a trained classifier, whose network is frozen, see
+     *                   {@link learners.perceptrons.NeuralNetwork#freeze()}
+     */
+    public InferenceServer(NNClassifier classifier){
+        this.classifier = classifier;
+    }
+
+    /**
+     * Set the largest number of requests classified together.
+     * @param maxBatchSize the batch size; 64 by default, and 1 disables batching
+     * @return this server
+     * @throws IllegalArgumentException if the batch size is below 1
+     */
+    public InferenceServer setMaxBatchSize(int maxBatchSize) {
+        checkNotStarted();
+        if(maxBatchSize < 1){
+            throw new IllegalArgumentException("Batch size must be at least 1.");
+        }
+        this.maxBatchSize = maxBatchSize;
+        return this;
+    }
+
+    /**
+     * Set how long the first request of a batch waits for the batch to fill.
+     * @param micros the latency in microseconds; 200 by default
+     * @return this server
+     */
+    public InferenceServer setMaxLatency(long micros) {
+        checkNotStarted();
+        this.maxLatencyNanos = TimeUnit.MICROSECONDS.toNanos(micros);
+        return this;
+    }
+
+    /**
+     * Set the number of requests queued before connections stop reading, which is also the number of unwritten
+     * responses a connection may accumulate.
+     * @param queueCapacity the queue capacity; 4096 by default
+     * @return this server
+     * @throws IllegalArgumentException if the capacity is below 1
+     */
+    public InferenceServer setQueueCapacity(int queueCapacity) {
+        checkNotStarted();
+        if(queueCapacity < 1){
+            throw new IllegalArgumentException("Queue capacity must be at least 1.");
+        }
+        this.queueCapacity = queueCapacity;
+        return this;
+    }
+
+    /**
+     * Start listening on the loopback interface.
+     * @param port the port, or 0 for any free port, see {@link #getPort()}
+     * @return this server
+     * @throws IOException if the port cannot be bound
+     */
+    public synchronized InferenceServer start(int port) throws IOException {
+        checkNotStarted();
+        queue = new ArrayBlockingQueue<>(queueCapacity);
+        serverSocket = new ServerSocket();
+        serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        batcher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                batchLoop();
+            }
+        }, "inference-batcher");
+        batcher.setDaemon(true);
+        batcher.start();
+        acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                acceptLoop();
+            }
+        }, "inference-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return this;
+    }
+
+    /**
+     * Get the port the server listens on.
+     * @return the bound port
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    public long getBatches() {
+        return batches.sum();
+    }
+
+    public double getMeanBatchSize() {
+        long n = batches.sum();
+        return n == 0 ? 0 : (double) requests.sum() / n;
+    }
+
+    /**
+     * Stop the server and close all connections. Queued requests are dropped.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        closed = true;
+        if(serverSocket != null){
+            serverSocket.close();
+            batcher.interrupt();
+            for(Connection connection : connections){
+                connection.close();
+            }
+            queue.clear(); /*releases connections blocked on a full queue*/
+        }
+    }
+
+    private void checkNotStarted(){
+        if(serverSocket != null){
+            throw new IllegalStateException("Server already started.");
+        }
+    }
+
+    private void acceptLoop(){
+        while(!closed){
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                Connection connection = new Connection(socket);
+                connections.add(connection);
+                if(closed){
+                    connection.close();
+                    break;
+                }
+                connection.start("inference-connection-" + connectionCount.getAndIncrement());
+            } catch (IOException e) {
+                if(!closed){
+                    System.err.println("Inference server: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void batchLoop(){
+        Request[] batch = new Request[maxBatchSize];
+        try {
+            while(!closed){
+                batch[0] = queue.take();
+                int n = 1;
+                long deadline = batch[0].arrival + maxLatencyNanos;
+                while(n < maxBatchSize){
+                    Request next = queue.poll();
+                    if(next == null){
+                        long wait = deadline - System.nanoTime();
+                        if(wait <= 0 || !mayArrive() || (next = queue.poll(wait, TimeUnit.NANOSECONDS)) == null){
+                            break;
+                        }
+                    }
+                    batch[n++] = next;
+                }
+                try {
+                    process(batch, n);
+                } catch (RuntimeException e) {
+                    System.err.println("Inference server: " + e);
+                    abandon(batch, n);
+                }
+            }
+        } catch (InterruptedException e) {
+            /*closing*/
+        }
+    }
+
+    /**
+     * Close the connections of a batch that failed unexpectedly: their responses can no longer be written in order.
+     */
+    private void abandon(Request[] batch, int n){
+        for(int i=0; i<n; i++){
+            if(batch[i] != null){
+                batch[i].connection.close();
+                batch[i] = null;
+            }
+        }
+    }
+
+    /**
+     * Check whether waiting may grow the batch: some open connection has no request in flight. Connections that
+     * already wait on a response, such as clients sending one request at a time, are not expected to send more.
+     */
+    private boolean mayArrive(){
+        for(Connection connection : connections){
+            if(!connection.finished && connection.pending.get() == 0){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Classify a batch and hand its responses to the connections.
+     */
+    private void process(Request[] batch, int n){
+        int width = classifier.featureLen, valid = 0;
+        for(int i=0; i<n; i++){
+            if(batch[i].input != null){
+                valid++;
+            }
+        }
+        String[] responses = new String[n];
+        if(valid > 0){
+            double[] rows = new double[valid * width];
+            for(int i=0, r=0; i<n; i++){
+                if(batch[i].input != null){
+                    System.arraycopy(batch[i].input, 0, rows, r++ * width, width);
+                }
+            }
+            try {
+                int[] indices = classifier.classifyBatchIndices(rows, valid);
+                for(int i=0, r=0; i<n; i++){
+                    if(batch[i].input != null){
+                        responses[i] = classifier.getLabels().getLabel(indices[r++]);
+                    }
+                }
+            } catch (RuntimeException e) {
+                for(int i=0; i<n; i++){
+                    if(batch[i].input != null){
+                        responses[i] = "ERR " + e;
+                    }
+                }
+            }
+        }
+        for(int i=0; i<n; i++){
+            batch[i].connection.respond(responses[i] != null ? responses[i] : "ERR " + batch[i].error);
+            batch[i] = null;
+        }
+        requests.add(n);
+        batches.increment();
+    }
+
+    /**
+     * A queued instance, or a line that could not be parsed.
+     */
+    private static final class Request {
+        final Connection connection;
+        final double[] input; /*null for a malformed line*/
+        final String error;
+        final long arrival = System.nanoTime();
+
+        Request(Connection connection, double[] input, String error){
+            this.connection = connection;
+            this.input = input;
+            this.error = error;
+        }
+    }
+
+    /**
+     * A client connection. Its reading thread queues requests, and its writing thread writes the responses in order,
+     * flushing once no more responses are ready.
+     */
+    private final class Connection implements Runnable {
+        private final Socket socket;
+        private final Writer out;
+        private final AtomicInteger pending = new AtomicInteger(); /*requests queued and not yet answered*/
+        private final BlockingQueue<String> responses = new LinkedBlockingQueue<>(); /*answered and not yet written*/
+        private final Semaphore window = new Semaphore(queueCapacity); /*requests read and not yet written*/
+        private volatile boolean finished; /*the client stopped sending*/
+        private boolean failed; /*written by the writing thread only*/
+        private Thread reader, writer;
+
+        Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+        }
+
+        synchronized void start(String name){
+            reader = new Thread(this, name);
+            writer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    writeLoop();
+                }
+            }, name + "-writer");
+            reader.setDaemon(true);
+            writer.setDaemon(true);
+            writer.start();
+            reader.start();
+        }
+
+        @Override
+        public void run() {
+            try {
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                for(String line; (line = in.readLine()) != null; ){
+                    if(!line.trim().isEmpty()){
+                        window.acquire();
+                        pending.incrementAndGet();
+                        queue.put(parse(line));
+                    }
+                }
+            } catch (IOException | InterruptedException e) {
+                /*closed by the client or the server*/
+            }
+            finished = true;
+            if(pending.get() == 0){
+                responses.add(END);
+            }
+        }
+
+        private Request parse(String line){
+            int width = classifier.featureLen;
+            double[] input = new double[width];
+            int count = 0;
+            for(int from=0; from<=line.length(); count++){
+                int to = line.indexOf(',', from);
+                if(to < 0){
+                    to = line.length();
+                }
+                if(count == width){
+                    return new Request(this, null, "expected " + width + " attributes");
+                }
+                try {
+                    input[count] = Double.parseDouble(line.substring(from, to).trim());
+                } catch (NumberFormatException e) {
+                    return new Request(this, null, "malformed attribute " + (count + 1));
+                }
+                from = to + 1;
+            }
+            if(count != width){
+                return new Request(this, null, "expected " + width + " attributes");
+            }
+            return new Request(this, input, null);
+        }
+
+        /**
+         * Queue the response to the oldest unanswered request; called by the batching thread.
+         */
+        void respond(String response){
+            responses.add(response);
+            if(pending.decrementAndGet() == 0 && finished){
+                responses.add(END);
+            }
+        }
+
+        /**
+         * Write the responses until the client stopped sending and every request was answered, or until a write fails
+         * and the connection is closed.
+         */
+        private void writeLoop(){
+            try {
+                for(String response = responses.take(); response != END && !failed; ){
+                    int written = 0;
+                    for(; response != null && response != END; response = responses.poll()){
+                        write(response);
+                        written++;
+                    }
+                    flush();
+                    window.release(written);
+                    if(response == null && !failed){
+                        response = responses.take();
+                    }
+                }
+            } catch (InterruptedException e) {
+                /*closed by the server*/
+            }
+            close();
+        }
+
+        private void write(String response){
+            if(!failed){
+                try {
+                    out.write(response);
+                    out.write('\n');
+                } catch (IOException e) {
+                    failed = true;
+                    close();
+                }
+            }
+        }
+
+        private void flush(){
+            if(!failed){
+                try {
+                    out.flush();
+                } catch (IOException e) {
+                    failed = true;
+                    close();
+                }
+            }
+        }
+
+        void close(){
+            connections.remove(this);
+            try {
+                socket.close();
+            } catch (IOException e) {
+                /*already closed*/
+            }
+            synchronized (this) {
+                if(writer != null){
+                    if(writer != Thread.currentThread()){
+                        writer.interrupt();
+                    }
+                    if(reader != Thread.currentThread()){
+                        reader.interrupt();
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package learners.api;
+
+import learners.core.eval.Dataset;
+import learners.core.eval.LabelDist;
+import learners.perceptrons.MultiLayerPerceptron;
+import learners.perceptrons.NetworkFormat;
+import learners.perceptrons.NeuralNetwork;
+import learners.utils.Serialization;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A binary model file holding a classifier over a multilayer perceptron.
+ * <p>Unlike {@link Serialization}, the file does not depend on the layout of the classes: it holds the shape of the
+ * network, its normalization and labels, and then the raw weight blocks. Loading maps the file and copies each block
+ * into the network in bulk, so that large models load in the time it takes to copy their weights.</p>
+ * <p>The format is little-endian throughout:</p>
+ * <pre>
+ * int      magic "NNJM", version
+ * int      featureLen, numSelected (-1 without attribute selection), then the selected attribute indices
+ * int      numLabels, targetWidth
+ * string   labels (numLabels), each an int byte length and utf-8 bytes
+ *          zero padding to a multiple of 8 bytes
+ * double   the target vector of each label (numLabels rows of targetWidth)
+ * ...      the network, see {@link NetworkFormat}
+ * </pre>
+ */
+public final class ModelFile {
+    private static final int MAGIC = 0x4D4A4E4E; /*"NNJM" in little-endian order*/
+    private static final int VERSION = 1;
+
+    private ModelFile(){}
+
+    /**
+     * Write a classifier to a binary model file.
+     * <p>The file is written next to its destination and then renamed, so readers never see a partial file.</p>
+     * @param classifier a classifier over a multilayer perceptron
+     * @param path the destination file
+     * @throws IOException
+     * @throws IllegalArgumentException if the classifier cannot be saved in the binary format, or its attribute
+     *                                  selection and labels do not fit its network
+     */
+    public static void save(NNClassifier classifier, String path) throws IOException {
+        int[] selected = classifier.selectedAttributes();
+        LabelDist labels = classifier.getLabels();
+        int numLabels = labels.numLabels();
+        int targetWidth = numLabels > 0 ? labels.getTarget(0).length : 0;
+        String mismatch = mismatch(classifier.getNN(), classifier.featureLen, selected, numLabels, targetWidth);
+        if(mismatch != null){
+            throw new IllegalArgumentException("Cannot save the classifier in the binary format: " + mismatch);
+        }
+        byte[][] names = new byte[numLabels][];
+        int headerLength = 24 + 4 * (selected != null ? selected.length : 0);
+        for(int i=0; i<numLabels; i++){
+            names[i] = labels.getLabel(i).getBytes(StandardCharsets.UTF_8);
+            headerLength += 4 + names[i].length;
+        }
+        int dataStart = align(headerLength);
+        ByteBuffer header = ByteBuffer.allocate(dataStart + 8 * numLabels * targetWidth).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt(classifier.featureLen);
+        header.putInt(selected != null ? selected.length : -1);
+        if(selected != null){
+            for(int i : selected){
+                header.putInt(i);
+            }
+        }
+        header.putInt(numLabels).putInt(targetWidth);
+        for(byte[] name : names){
+            header.putInt(name.length).put(name);
+        }
+        header.position(dataStart);
+        for(int i=0; i<numLabels; i++){
+            double[] target = labels.getTarget(i);
+            if(target.length != targetWidth){
+                throw new IllegalArgumentException("Labels with target vectors of different lengths cannot be saved in the binary format.");
+            }
+            for(double v : target){
+                header.putDouble(v);
+            }
+        }
+        header.flip();
+
+        Path destination = new File(path).toPath();
+        Path temp = new File(path + ".tmp").toPath();
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while(header.hasRemaining()){
+                channel.write(header);
+            }
+            NetworkFormat.write(classifier.getNN(), channel);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        Files.move(temp, destination, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Load a classifier from a binary model file.
+     * @param path a binary model file
+     * @return the classifier, whose network is frozen
+     * @throws IOException if the file is not a binary model file
+     */
+    public static NNClassifier load(String path) throws IOException {
+        File file = new File(path);
+        if(!file.exists() || !file.canRead()){
+            throw new IOException("Cannot read model file.");
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if(channel.size() > Integer.MAX_VALUE){
+                throw new IOException("Model file too large to map.");
+            }
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+            if(buffer.remaining() < 8 || buffer.getInt() != MAGIC){
+                throw new IOException("Not a binary model file.");
+            }
+            if(buffer.getInt() != VERSION){
+                throw new IOException("Unsupported binary model version.");
+            }
+            try {
+                int featureLen = buffer.getInt();
+                int numSelected = buffer.getInt();
+                int[] selected = null;
+                if(numSelected >= 0){
+                    selected = new int[numSelected];
+                    buffer.asIntBuffer().get(selected);
+                    buffer.position(buffer.position() + 4 * numSelected);
+                }
+                int numLabels = buffer.getInt();
+                int targetWidth = buffer.getInt();
+                String[] names = new String[numLabels];
+                for(int i=0; i<numLabels; i++){
+                    byte[] bytes = new byte[buffer.getInt()];
+                    buffer.get(bytes);
+                    names[i] = new String(bytes, StandardCharsets.UTF_8);
+                }
+                buffer.position(align(buffer.position()));
+                double[][] targets = new double[numLabels][targetWidth];
+                for(double[] target : targets){
+                    buffer.asDoubleBuffer().get(target);
+                    buffer.position(buffer.position() + 8 * targetWidth);
+                }
+                MultiLayerPerceptron network = NetworkFormat.read(buffer);
+                String mismatch = mismatch(network, featureLen, selected, numLabels, targetWidth);
+                if(mismatch != null){
+                    throw new IOException("Malformatted binary model file: " + mismatch);
+                }
+                return new NNClassifier(network, Dataset.labelDist(names, targets), selected, featureLen);
+            } catch (BufferUnderflowException | IllegalArgumentException | NegativeArraySizeException e) {
+                throw new IOException("Malformatted binary model file.");
+            }
+        }
+    }
+
+    /**
+     * Convert a model saved with {@link Serialization#saveModel(Object, String)} to a binary model file.
+     * @param modelPath the path the model was saved to, without its suffix
+     * @param path the destination file
+     * @throws IOException if the model cannot be read or is not a classifier
+     */
+    public static void convert(String modelPath, String path) throws IOException {
+        Object model;
+        try {
+            model = Serialization.loadModel(modelPath);
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        }
+        if(!(model instanceof NNClassifier)){
+            throw new IOException("Not a classifier model.");
+        }
+        save((NNClassifier) model, path);
+    }
+
+    /**
+     * Check that the attribute selection and labels fit the network.
+     * @return a description of the first mismatch, or null if there is none
+     */
+    private static String mismatch(NeuralNetwork network, int featureLen, int[] selected, int numLabels, int targetWidth){
+        if(featureLen < 0){
+            return "negative feature length.";
+        }
+        if(selected != null){
+            for(int i : selected){
+                if(i < 0 || i >= featureLen){
+                    return "selected attribute " + i + " is not among the " + featureLen + " attributes.";
+                }
+            }
+        }
+        int inputs = selected != null ? selected.length : featureLen;
+        if(inputs != network.numInputNodes()){
+            return inputs + " attributes for a network of " + network.numInputNodes() + " inputs.";
+        }
+        if(numLabels > 0 && targetWidth != network.numOutputNodes()){
+            return "targets of width " + targetWidth + " for a network of " + network.numOutputNodes() + " outputs.";
+        }
+        return null;
+    }
+
+    private static int align(int offset){
+        return (offset + 7) & ~7;
+    }
+}
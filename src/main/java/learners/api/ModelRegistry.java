@@ -0,0 +1,409 @@
+package learners.api;
+
+import learners.perceptrons.MultiLayerPerceptron;
+import learners.perceptrons.NeuralNetwork;
+import learners.perceptrons.QuantizedNetwork;
+import learners.utils.Serialization;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A cache of classifiers loaded on first use and evicted under a memory budget.
+ * <p>Models are named the way they are saved:</p>
+ * <ul>
+ *     <li>the path of a binary model file, see {@link ModelFile};</li>
+ *     <li>a path given to {@link Serialization#saveModel(Object, String)}, without its suffix;</li>
+ *     <li>a resource name given to {@link Serialization#loadModelFromResources(String)}.</li>
+ * </ul>
+ * <p>Hits only read the cached classifier, so lookups of resident models never wait on a load. Once
+ * {@link #watch(long)} is called, the files of resident models are polled and changed files are loaded in the
+ * background and swapped in; calls already running on the previous version finish on it. Loaded networks are
+ * frozen, see {@link NeuralNetwork#freeze()}.</p>
+ * <p>The memory of a model is measured as the bytes of its network's weights.</p>
+ */
+public class ModelRegistry implements Closeable {
+    /**
+     * The model evicted first when the registry is over its memory budget.
+     */
+    public enum Policy {
+        LRU /*the least recently used model*/,
+        LFU /*the least frequently used model, then the least recently used*/
+    }
+
+    private final long memoryBudget;
+    private final Policy policy;
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Object evictionLock = new Object();
+    private final AtomicLong residentBytes = new AtomicLong();
+    private final LongAdder hits = new LongAdder(), misses = new LongAdder(), evictions = new LongAdder();
+    private final LongAdder reloads = new LongAdder(), failedReloads = new LongAdder();
+    private final LongAdder loads = new LongAdder(), loadNanos = new LongAdder();
+    private ScheduledExecutorService watcher;
+
+    /**
+     * Construct an empty registry.
+     * @param memoryBudget the bytes of weights kept in memory; the most recently loaded model is kept even if it
+     *                     exceeds the budget on its own
+     * @param policy the eviction policy
+     */
+    public ModelRegistry(long memoryBudget, Policy policy){
+        this.memoryBudget = memoryBudget;
+        this.policy = policy;
+    }
+
+    /**
+     * Get a model, loading it on a miss.
+     * <p>Concurrent misses of the same model load it once; misses of other models and hits are not blocked.</p>
+     * @param name a model name
+     * @return the current version of the model
+     * @throws IOException if the model cannot be loaded
+     */
+    public NNClassifier get(String name) throws IOException {
+        while(true){
+            Entry entry = entries.get(name);
+            if(entry != null){
+                NNClassifier model = entry.model;
+                if(model != null){
+                    hit(entry);
+                    return model;
+                }
+            }else{
+                Entry created = new Entry(name);
+                entry = entries.putIfAbsent(name, created);
+                if(entry == null){
+                    entry = created;
+                }
+            }
+            NNClassifier model = load(entry);
+            if(model != null){
+                return model;
+            }
+        }
+    }
+
+    /**
+     * Drop a model from the registry. Calls running on the model are not affected.
+     * @param name a model name
+     */
+    public void invalidate(String name){
+        Entry entry = entries.get(name);
+        if(entry != null){
+            remove(entry);
+        }
+    }
+
+    /**
+     * Poll the files of the resident models every interval on a background thread, and swap in the models whose
+     * file changed.
+     * <p>A changed file that fails to load, such as one caught halfway through being written, leaves the previous
+     * version in place and is retried on the next poll.</p>
+     * @param intervalMillis the polling interval in milliseconds
+     * @return this registry
+     */
+    public synchronized ModelRegistry watch(long intervalMillis){
+        if(watcher != null){
+            throw new IllegalStateException("Registry already watching.");
+        }
+        watcher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "model-registry-watcher");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        watcher.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                refresh();
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        return this;
+    }
+
+    /**
+     * Reload the resident models whose file changed since they were loaded.
+     */
+    public void refresh(){
+        for(Entry entry : entries.values()){
+            if(changed(entry)){
+                reload(entry);
+            }
+        }
+    }
+
+    /**
+     * Stop watching model files.
+     */
+    @Override
+    public synchronized void close(){
+        if(watcher != null){
+            watcher.shutdownNow();
+            watcher = null;
+        }
+    }
+
+    public Stats getStats(){
+        int resident = 0;
+        for(Entry entry : entries.values()){
+            if(entry.model != null){
+                resident++;
+            }
+        }
+        return new Stats(hits.sum(), misses.sum(), evictions.sum(), reloads.sum(), failedReloads.sum(), loads.sum(), loadNanos.sum(), resident, residentBytes.get());
+    }
+
+    private void hit(Entry entry){
+        hits.increment();
+        entry.uses.increment();
+        entry.lastUse = System.nanoTime();
+    }
+
+    /**
+     * Load a missing model into its entry.
+     * @return the model, or null if the entry was evicted before it was loaded
+     */
+    private NNClassifier load(Entry entry) throws IOException {
+        NNClassifier ret;
+        synchronized (entry) {
+            if(entry.removed){
+                return null;
+            }
+            if(entry.model != null){
+                hit(entry);
+                return entry.model;
+            }
+            misses.increment();
+            try {
+                read(entry);
+            } catch (IOException | RuntimeException e) {
+                entry.removed = true;
+                entries.remove(entry.name, entry);
+                throw e;
+            }
+            residentBytes.addAndGet(entry.bytes);
+            entry.uses.increment();
+            entry.lastUse = System.nanoTime();
+            ret = entry.model;
+        }
+        evict(entry);
+        return ret;
+    }
+
+    private boolean changed(Entry entry){
+        synchronized (entry) {
+            return !entry.removed && entry.model != null && entry.file != null && entry.stamp != stamp(entry.file);
+        }
+    }
+
+    private void reload(Entry entry){
+        Entry version = new Entry(entry.name);
+        try {
+            read(version);
+        } catch (IOException | RuntimeException e) {
+            failedReloads.increment();
+            return;
+        }
+        synchronized (entry) {
+            if(entry.removed){
+                return;
+            }
+            residentBytes.addAndGet(version.bytes - entry.bytes);
+            entry.bytes = version.bytes;
+            entry.stamp = version.stamp;
+            entry.model = version.model;
+        }
+        reloads.increment();
+        evict(entry);
+    }
+
+    /**
+     * Read the current version of a model into an entry that is not visible yet, or whose lock is held. The resident
+     * bytes are left to the caller.
+     */
+    private void read(Entry entry) throws IOException {
+        long start = System.nanoTime();
+        File binary = new File(entry.name), serialized = new File(entry.name + ".model");
+        Object model;
+        try {
+            if(binary.isFile()){
+                entry.file = binary;
+                entry.stamp = stamp(binary);
+                model = ModelFile.load(entry.name);
+            }else if(serialized.isFile()){
+                entry.file = serialized;
+                entry.stamp = stamp(serialized);
+                model = Serialization.loadModel(entry.name);
+            }else{
+                model = Serialization.loadModelFromResources(entry.name);
+            }
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        }
+        if(!(model instanceof NNClassifier)){
+            throw new IOException("Not a classifier model: " + entry.name);
+        }
+        NNClassifier classifier = (NNClassifier) model;
+        classifier.getNN().freeze();
+        entry.bytes = weightBytes(classifier.getNN());
+        entry.model = classifier;
+        loads.increment();
+        loadNanos.add(System.nanoTime() - start);
+    }
+
+    /**
+     * Evict models until the registry fits its budget, keeping the given entry.
+     */
+    private void evict(Entry keep){
+        synchronized (evictionLock) {
+            while(residentBytes.get() > memoryBudget){
+                Entry victim = null;
+                for(Entry entry : entries.values()){
+                    if(entry != keep && entry.model != null && (victim == null || evictsBefore(entry, victim))){
+                        victim = entry;
+                    }
+                }
+                if(victim == null){
+                    break;
+                }
+                remove(victim);
+                evictions.increment();
+            }
+        }
+    }
+
+    private boolean evictsBefore(Entry a, Entry b){
+        if(policy == Policy.LFU){
+            long ua = a.uses.sum(), ub = b.uses.sum();
+            if(ua != ub){
+                return ua < ub;
+            }
+        }
+        return a.lastUse - b.lastUse < 0;
+    }
+
+    private void remove(Entry entry){
+        synchronized (entry) {
+            if(!entry.removed){
+                entry.removed = true;
+                entries.remove(entry.name, entry);
+                if(entry.model != null){
+                    residentBytes.addAndGet(-entry.bytes);
+                    entry.model = null;
+                }
+            }
+        }
+    }
+
+    private static long stamp(File file){
+        return file.lastModified() * 31 + file.length();
+    }
+
+    private static long weightBytes(NeuralNetwork network){
+        if(network instanceof MultiLayerPerceptron){
+            return ((MultiLayerPerceptron) network).weightBytes();
+        }
+        if(network instanceof QuantizedNetwork){
+            return ((QuantizedNetwork) network).weightBytes();
+        }
+        return 0;
+    }
+
+    /**
+     * A registered model and its usage.
+     */
+    private static final class Entry {
+        final String name;
+        volatile NNClassifier model; /*the current version, or null until loaded and once evicted*/
+        File file; /*the file the model was loaded from, or null for a resource*/
+        long stamp; /*modification time and length of the file when loaded*/
+        long bytes;
+        boolean removed;
+        final LongAdder uses = new LongAdder();
+        volatile long lastUse;
+
+        Entry(String name){
+            this.name = name;
+        }
+    }
+
+    /**
+     * A snapshot of the registry's counters.
+     */
+    public static final class Stats {
+        private final long hits, misses, evictions, reloads, failedReloads, loads, loadNanos;
+        private final int residentModels;
+        private final long residentBytes;
+
+        private Stats(long hits, long misses, long evictions, long reloads, long failedReloads, long loads, long loadNanos, int residentModels, long residentBytes) {
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.reloads = reloads;
+            this.failedReloads = failedReloads;
+            this.loads = loads;
+            this.loadNanos = loadNanos;
+            this.residentModels = residentModels;
+            this.residentBytes = residentBytes;
+        }
+
+        public long getHits() {
+            return hits;
+        }
+
+        public long getMisses() {
+            return misses;
+        }
+
+        public double getHitRate() {
+            return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+        }
+
+        public long getEvictions() {
+            return evictions;
+        }
+
+        /**
+         * Get the number of models swapped in after their file changed.
+         * @return the number of reloads
+         */
+        public long getReloads() {
+            return reloads;
+        }
+
+        public long getFailedReloads() {
+            return failedReloads;
+        }
+
+        /**
+         * Get the mean time spent loading a model, over the successful loads of misses and reloads.
+         * @return the mean load time in milliseconds
+         */
+        public double getMeanLoadMillis() {
+            return loads == 0 ? 0 : loadNanos / 1e6 / loads;
+        }
+
+        public int getResidentModels() {
+            return residentModels;
+        }
+
+        public long getResidentBytes() {
+            return residentBytes;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("hits: %d; misses: %d; hit rate: %.2f; evictions: %d; reloads: %d (%d failed); mean load: %.2f ms; resident: %d models, %d bytes",
+                    hits, misses, getHitRate(), evictions, reloads, failedReloads, getMeanLoadMillis(), residentModels, residentBytes);
+        }
+    }
+}
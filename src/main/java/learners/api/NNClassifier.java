@@ -1,15 +1,26 @@
 package learners.api;
 
 import learners.core.eval.LabelDist;
+import learners.perceptrons.MultiLayerPerceptron;
 import learners.perceptrons.NeuralNetwork;
+import learners.perceptrons.QuantizedNetwork;
+import learners.perceptrons.Workspace;
 
 import java.io.Serializable;
+import java.util.Arrays;
 
+/**
+ * A classifier wrapping a trained network and its label mappings.
+ * <p>Classification only reads the network's weights, so one instance can be shared by all request threads once
+ * training is done; see {@link NeuralNetwork#freeze()}.</p>
+ */
 public class NNClassifier implements Serializable{
+    private static final long serialVersionUID = 4895047190187723306L;
     private NeuralNetwork neuralNetwork;
     private LabelDist labels;
     private int selectedAttributes[];
     int featureLen;
+    private transient int[] gather; /*the selected attributes that exist in a raw instance, built on first use*/
 
     public NNClassifier(NeuralNetwork neuralNetwork, LabelDist labels, int selectedAttributes[], int featureLen){
         this.neuralNetwork = neuralNetwork;
@@ -22,10 +33,58 @@ public class NNClassifier implements Serializable{
         return neuralNetwork;
     }
 
+    int[] selectedAttributes() {
+        return selectedAttributes;
+    }
+
     public LabelDist getLabels() {
         return labels;
     }
 
+    /**
+     * Build an inference-only copy of this classifier with quantized weights.
+     * <p>Use {@link QuantizationReport#compare(NNClassifier, NNClassifier, learners.core.eval.Dataset)} to measure the
+     * accuracy drift against this classifier.</p>
+     * @param scheme the weight encoding
+     * @return a classifier sharing this one's labels and attribute selection
+     */
+    public NNClassifier quantize(QuantizedNetwork.Scheme scheme){
+        if(!(neuralNetwork instanceof MultiLayerPerceptron)){
+            throw new IllegalArgumentException("Only multilayer perceptrons can be quantized.");
+        }
+        return new NNClassifier(new QuantizedNetwork((MultiLayerPerceptron) neuralNetwork, scheme), labels, selectedAttributes, featureLen);
+    }
+
+    /**
+     * Build an inference-only copy of this classifier that makes one pass over each raw instance.
+     * <p>The network's input normalization is folded into its first layer, so selecting the attributes through a
+     * precomputed gather index is the only work done before the first layer.</p>
+     * @return a classifier sharing this one's labels and attribute selection
+     * @see MultiLayerPerceptron#optimizeForInference()
+     */
+    public NNClassifier optimizeForInference(){
+        if(!(neuralNetwork instanceof MultiLayerPerceptron)){
+            throw new IllegalArgumentException("Only multilayer perceptrons can be optimized.");
+        }
+        return new NNClassifier(((MultiLayerPerceptron) neuralNetwork).optimizeForInference(), labels, selectedAttributes, featureLen);
+    }
+
+    /**
+     * Get the attributes gathered from a raw instance: the selected attributes up to the first one beyond the raw
+     * instance length. The remaining slots of a selected instance are zero.
+     */
+    private int[] gatherIndex(){
+        int[] ret = gather;
+        if(ret == null){
+            int n = 0;
+            while(n < selectedAttributes.length && selectedAttributes[n] < featureLen){
+                n++;
+            }
+            ret = gather = Arrays.copyOf(selectedAttributes, n);
+        }
+        return ret;
+    }
+
     public double[] selectFeatures(double input[]){
         if(selectedAttributes != null && input.length == featureLen){
             double filteredInput[] = new double[selectedAttributes.length];
@@ -39,8 +98,136 @@ public class NNClassifier implements Serializable{
         return new double[selectedAttributes.length];
     }
 
+    /**
+     * Select the model's attributes from a raw instance into a caller-provided buffer.
+     * @param input the raw instance
+     * @param filteredInput the buffer receiving the selected attributes
+     * @return the selected attributes: either the buffer, or the input itself when it is already filtered.
+     */
+    public double[] selectFeatures(double input[], double filteredInput[]){
+        if(selectedAttributes != null && input.length == featureLen){
+            int[] index = gatherIndex();
+            for(int i=0; i<index.length; i++){
+                filteredInput[i] = input[index[i]];
+            }
+            Arrays.fill(filteredInput, index.length, filteredInput.length, 0);
+            return filteredInput;
+        }else if(input.length == selectedAttributes.length){
+            return input;
+        }
+        Arrays.fill(filteredInput, 0);
+        return filteredInput;
+    }
+
     public String classify(double input[]){
         double output[] = neuralNetwork.process(selectFeatures(input));
         return labels.getBestMatch(output);
     }
-}
\ No newline at end of file
+
+    /**
+     * Classify an instance.
+     * @param input the raw instance
+     * @return the index of the best matching label, see {@link LabelDist#getLabel(int)}
+     */
+    public int classifyIndex(double input[]){
+        return labels.getBestMatchIndex(neuralNetwork.process(selectFeatures(input)));
+    }
+
+    /**
+     * Classify an instance using caller-provided scratch space, typically one workspace kept per thread.
+     * @param input the raw instance
+     * @param workspace scratch space from {@link #newWorkspace()}
+     * @return the best matching label
+     */
+    public String classify(double input[], Workspace workspace){
+        return labels.getLabel(classifyIndex(input, workspace));
+    }
+
+    /**
+     * Classify an instance without allocating.
+     * <p>The selected attributes and the network's output are staged in the workspace's buffers.</p>
+     * @param input the raw instance
+     * @param workspace scratch space from {@link #newWorkspace()}
+     * @return the index of the best matching label, see {@link LabelDist#getLabel(int)}
+     */
+    public int classifyIndex(double input[], Workspace workspace){
+        double output[] = workspace.outputBuffer();
+        neuralNetwork.process(selectFeatures(input, workspace.inputBuffer()), output, workspace);
+        return labels.getBestMatchIndex(output);
+    }
+
+    /**
+     * Classify a batch of instances.
+     * @param inputs the raw instances
+     * @return the best matching label of each instance
+     */
+    public String[] classifyBatch(double inputs[][]){
+        int indices[] = classifyBatchIndices(inputs);
+        String ret[] = new String[indices.length];
+        for(int i=0; i<indices.length; i++){
+            ret[i] = labels.getLabel(indices[i]);
+        }
+        return ret;
+    }
+
+    /**
+     * Classify a batch of instances.
+     * <p>The whole batch is pushed through the network layer by layer, split across the common fork-join pool.</p>
+     * @param inputs the raw instances
+     * @return the index of the best matching label of each instance, see {@link LabelDist#getLabel(int)}
+     */
+    public int[] classifyBatchIndices(double inputs[][]){
+        int width = neuralNetwork.numInputNodes();
+        double selected[] = new double[inputs.length * width];
+        double buffer[] = new double[width];
+        for(int r=0; r<inputs.length; r++){
+            System.arraycopy(selectFeatures(inputs[r], buffer), 0, selected, r * width, width);
+        }
+        return matchBatch(selected, inputs.length);
+    }
+
+    /**
+     * Classify a row-major batch of instances.
+     * @param inputs the raw instances, one after the other
+     * @param rows the number of instances
+     * @return the index of the best matching label of each instance, see {@link LabelDist#getLabel(int)}
+     * @throws IllegalArgumentException if the inputs do not split into rows of equal length
+     */
+    public int[] classifyBatchIndices(double inputs[], int rows){
+        if(rows == 0){
+            return new int[0];
+        }
+        if(rows < 0 || inputs.length % rows != 0){
+            throw new IllegalArgumentException("Cannot split " + inputs.length + " values into " + rows + " instances.");
+        }
+        int width = neuralNetwork.numInputNodes(), rowLen = inputs.length / rows;
+        double selected[] = new double[rows * width];
+        double row[] = new double[rowLen], buffer[] = new double[width];
+        for(int r=0; r<rows; r++){
+            System.arraycopy(inputs, r * rowLen, row, 0, rowLen);
+            System.arraycopy(selectFeatures(row, buffer), 0, selected, r * width, width);
+        }
+        return matchBatch(selected, rows);
+    }
+
+    private int[] matchBatch(double selected[], int rows){
+        int width = neuralNetwork.numOutputNodes();
+        double outputs[] = new double[rows * width];
+        neuralNetwork.processBatch(selected, outputs, rows);
+        int ret[] = new int[rows];
+        double output[] = new double[width];
+        for(int r=0; r<rows; r++){
+            System.arraycopy(outputs, r * width, output, 0, width);
+            ret[r] = labels.getBestMatchIndex(output);
+        }
+        return ret;
+    }
+
+    /**
+     * Allocate scratch space for {@link #classify(double[], Workspace)}.
+     * @return a new workspace sized for the underlying network
+     */
+    public Workspace newWorkspace(){
+        return neuralNetwork.newWorkspace();
+    }
+}
@@ -0,0 +1,107 @@
+package learners.api;
+
+import learners.core.eval.Dataset;
+import learners.core.eval.LabelDist;
+
+import java.io.IOException;
+
+/**
+ * Accuracy drift of a quantized classifier against the classifier it was built from.
+ */
+public class QuantizationReport {
+    private static final int READ_BLOCK = 1024; /*instances read at once*/
+    private int total, agreements, referenceHits, quantizedHits;
+    private double maxOutputError, sumOutputError;
+
+    private QuantizationReport(){}
+
+    /**
+     * Evaluate two classifiers on the same dataset.
+     * <p>The dataset is read through its cursor, so datasets that are not held in memory can be used.</p>
+     *
+     * @param reference the original classifier
+     * @param quantized the quantized classifier, see {@link NNClassifier#quantize(learners.perceptrons.QuantizedNetwork.Scheme)}
+     * @param dataset the evaluation dataset, which is rewound
+     * @return the report
+     * @throws IOException if the dataset cannot be read
+     */
+    public static QuantizationReport compare(NNClassifier reference, NNClassifier quantized, Dataset dataset) throws IOException {
+        QuantizationReport report = new QuantizationReport();
+        LabelDist labels = reference.getLabels();
+        double[][] inputs = new double[READ_BLOCK][], targets = new double[READ_BLOCK][];
+        long outputs = 0;
+        dataset.rewind();
+        for(int n; (n = dataset.next(inputs, targets)) > 0; ){
+            double[][] selected = new double[n][];
+            for(int i=0; i<n; i++){
+                selected[i] = reference.selectFeatures(inputs[i]);
+            }
+            double[][] referenceOutputs = reference.getNN().processBatch(selected);
+            double[][] quantizedOutputs = quantized.getNN().processBatch(selected);
+            for(int i=0; i<n; i++){
+                int expected = labels.getBestMatchIndex(targets[i]);
+                int referenceLabel = labels.getBestMatchIndex(referenceOutputs[i]);
+                int quantizedLabel = labels.getBestMatchIndex(quantizedOutputs[i]);
+                report.total++;
+                if(referenceLabel == quantizedLabel){
+                    report.agreements++;
+                }
+                if(referenceLabel == expected){
+                    report.referenceHits++;
+                }
+                if(quantizedLabel == expected){
+                    report.quantizedHits++;
+                }
+                for(int j=0; j<referenceOutputs[i].length; j++){
+                    double err = Math.abs(referenceOutputs[i][j] - quantizedOutputs[i][j]);
+                    report.maxOutputError = Math.max(report.maxOutputError, err);
+                    report.sumOutputError += err;
+                    outputs++;
+                }
+            }
+        }
+        report.sumOutputError /= Math.max(outputs, 1);
+        return report;
+    }
+
+    /**
+     * Get the fraction of instances both classifiers label identically.
+     * @return the agreement rate, or 0 for an empty dataset
+     */
+    public double getAgreement(){
+        return rate(agreements);
+    }
+
+    public double getReferenceAccuracy(){
+        return rate(referenceHits);
+    }
+
+    public double getQuantizedAccuracy(){
+        return rate(quantizedHits);
+    }
+
+    private double rate(int count){
+        return total == 0 ? 0 : ((double) count) / total;
+    }
+
+    public double getMaxOutputError(){
+        return maxOutputError;
+    }
+
+    public double getMeanOutputError(){
+        return sumOutputError;
+    }
+
+    public String printSummary(){
+        StringBuilder sb = new StringBuilder("\n");
+        sb.append("=================================\n");
+        sb.append("====Quantization drift : ========\n");
+        sb.append("---------------------------------\n");
+        sb.append(String.format("Instances: %d\n", total));
+        sb.append(String.format("Label agreement: %.4f\n", getAgreement()));
+        sb.append(String.format("Accuracy: reference %.4f; quantized %.4f\n", getReferenceAccuracy(), getQuantizedAccuracy()));
+        sb.append(String.format("Output error: max %.6f; mean %.6f\n", getMaxOutputError(), getMeanOutputError()));
+        sb.append("---------------------------------\n");
+        return sb.toString();
+    }
+}
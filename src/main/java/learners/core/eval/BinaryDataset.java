@@ -0,0 +1,280 @@
+package learners.core.eval;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A dataset read from a memory-mapped binary cache file.
+ * <p>The file is written once from a csv file by {@link CSVDataset#toBinary(String, String, Projection)} and then opened
+ * without any parsing. The mapping is read-only, so processes opening the same file share its pages. Like
+ * {@link StreamingCSVDataset}, instances are read through the cursor, and {@link #getInputs()} and
+ * {@link #getTargets()} return null.</p>
+ * <p>The format is little-endian throughout:</p>
+ * <pre>
+ * int      magic "NNJD", version
+ * int      numInstances, numAttributes, numLabels
+ * string   attribute names (numAttributes), then labels (numLabels), each an int byte length and utf-8 bytes
+ *          zero padding to a multiple of 8 bytes
+ * double   one column of numInstances values per attribute
+ * int      the label code of each instance, indexing the labels above
+ * </pre>
+ * <p>Each column is mapped separately, which limits a file to less than 2^28 instances.</p>
+ */
+public class BinaryDataset extends Dataset {
+    private static final int MAGIC = 0x444A4E4E; /*"NNJD" in little-endian order*/
+    private static final int VERSION = 1;
+    private static final int WRITE_CHUNK = 16384; /*rows converted at once*/
+    private static final int MAX_ROWS = Integer.MAX_VALUE / 8; /*a column is mapped as one buffer*/
+    private static final int HEADER_WINDOW = 65536; /*bytes mapped first to read the header, doubled as needed*/
+
+    private String path;
+    private int numInstances;
+    private String[] attributeNames;
+    private DoubleBuffer[] columns; /*the column of each loaded attribute, null for attributes kept as zeros*/
+    private IntBuffer labelCodes;
+    private double[][] labelTargets; /*target vector of each label*/
+    private int cursor;
+
+    public BinaryDataset(boolean nominal){
+        super(nominal);
+    }
+
+    /**
+     * Map a binary dataset file.
+     * @param path a path to a binary dataset file
+     * @param selectedAttributes a list of attribute indices to include; the others read as 0. Only the columns that are
+     *                           read are mapped.
+     * @throws IOException if the file is not a binary dataset
+     */
+    @Override
+    public void fromFile(String path, int[] selectedAttributes) throws IOException {
+        File file = new File(path);
+        if(!file.exists() || !file.canRead()){
+            throw new IOException("Cannot read input file.");
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            ByteBuffer header = null;
+            int rows = 0, numAttributes = 0;
+            String[] names = null, labels = null;
+            for(long window = Math.min(size, HEADER_WINDOW); header == null; window = Math.min(size, Math.min(window * 2, Integer.MAX_VALUE))){
+                header = channel.map(FileChannel.MapMode.READ_ONLY, 0, window).order(ByteOrder.LITTLE_ENDIAN);
+                if(size < 20 || header.getInt() != MAGIC){
+                    throw new IOException("Not a binary dataset file.");
+                }
+                if(header.getInt() != VERSION){
+                    throw new IOException("Unsupported binary dataset version.");
+                }
+                try {
+                    rows = header.getInt();
+                    numAttributes = header.getInt();
+                    names = readStrings(header, numAttributes);
+                    labels = readStrings(header, header.getInt());
+                } catch (BufferUnderflowException e) {
+                    if(window == Math.min(size, Integer.MAX_VALUE)){
+                        throw new IOException("Malformatted binary dataset header.");
+                    }
+                    header = null; /*the header extends past the window*/
+                } catch (NegativeArraySizeException e) {
+                    throw new IOException("Malformatted binary dataset header.");
+                }
+            }
+            if(rows < 0 || rows > MAX_ROWS){
+                throw new IOException("Malformatted binary dataset header: " + rows + " rows.");
+            }
+            long offset = align(header.position());
+            if(size < offset + (long)rows * (numAttributes * 8L + 4)){
+                throw new IOException("Truncated binary dataset file.");
+            }
+            Projection projection = getProjection(selectedAttributes);
+            int[] fields = projection.bind(names);
+            DoubleBuffer[] mapped = new DoubleBuffer[fields.length];
+            for(int i=0; i<fields.length; i++){
+                if(fields[i] >= 0){
+                    mapped[i] = channel.map(FileChannel.MapMode.READ_ONLY, offset + fields[i] * (rows * 8L), rows * 8L).order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+                }
+            }
+            labelCodes = channel.map(FileChannel.MapMode.READ_ONLY, offset + numAttributes * (rows * 8L), rows * 4L).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+            columns = mapped;
+            attributeNames = projection.names(names, fields);
+            numInstances = rows;
+            labelTargets = resetLabels(labels);
+        }
+        this.path = path;
+        cursor = 0;
+    }
+
+    /**
+     * Binary datasets are mapped from files.
+     * @throws IOException always
+     */
+    @Override
+    public void fromInputStream(InputStream inputStream, int[] selectedAttributes) throws IOException {
+        throw new IOException("A binary dataset can only be read from a file.");
+    }
+
+    @Override
+    public String getDataPath() {
+        return path;
+    }
+
+    /**
+     * Get the names of the loaded attributes, from the header of the original csv file.
+     * @return the attribute names
+     */
+    public String[] getAttributeNames() {
+        return attributeNames;
+    }
+
+    /**
+     * Get the number of instances in the file.
+     * @return the number of instances
+     */
+    public int getNumInstances() {
+        return numInstances;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return columns != null && cursor < numInstances;
+    }
+
+    @Override
+    public void rewind() {
+        cursor = 0;
+    }
+
+    /**
+     * Read the next instances from the mapped columns.
+     * <p>Input rows are copied into the arrays already in the buffer when they have the right length, so reusing the
+     * same buffers across calls does not allocate. Target vectors are shared between instances of the same label.</p>
+     * @throws IOException if an instance has a label code that indexes no label
+     */
+    @Override
+    public int next(double[][] inputs, double[][] targets) throws IOException {
+        int n = hasNext() ? Math.min(inputs.length, numInstances - cursor) : 0;
+        for(int r=0; r<n; r++){
+            int code = labelCodes.get(cursor + r);
+            if(code < 0 || code >= labelTargets.length){
+                throw new IOException("Malformatted binary dataset: label code " + code + " at instance " + (cursor + r) + ".");
+            }
+            if(inputs[r] == null || inputs[r].length != columns.length){
+                inputs[r] = new double[columns.length];
+            }
+            targets[r] = labelTargets[code];
+        }
+        for(int c=0; c<columns.length; c++){
+            DoubleBuffer column = columns[c];
+            for(int r=0; r<n; r++){
+                inputs[r][c] = column != null ? column.get(cursor + r) : 0;
+            }
+        }
+        cursor += n;
+        return n;
+    }
+
+    /**
+     * Write a dataset to a binary file.
+     * <p>The file is written next to its destination and then renamed, so readers never see a partial file.</p>
+     * @param source the dataset, which is read from its first instance
+     * @param path the destination file
+     * @throws IOException
+     */
+    static void write(StreamingCSVDataset source, String path) throws IOException {
+        String[] names = source.getAttributeNames();
+        String[] labels = source.labels();
+        long rows = source.getNumInstances();
+        if(rows > MAX_ROWS){
+            throw new IOException("Binary datasets hold at most " + MAX_ROWS + " rows.");
+        }
+        ByteBuffer header = ByteBuffer.allocate((int)align(20 + stringsLength(names) + stringsLength(labels))).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt((int)rows).putInt(names.length);
+        writeStrings(header, names);
+        header.putInt(labels.length);
+        writeStrings(header, labels);
+        header.position(header.capacity());
+        header.flip();
+
+        Path destination = new File(path).toPath();
+        Path temp = new File(path + ".tmp").toPath();
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeFully(channel, header, 0);
+            long dataStart = header.capacity(), codesStart = dataStart + rows * names.length * 8L;
+            double[][] inputs = new double[WRITE_CHUNK][];
+            int[] codes = new int[WRITE_CHUNK];
+            ByteBuffer block = ByteBuffer.allocate(WRITE_CHUNK * 8).order(ByteOrder.LITTLE_ENDIAN);
+            long row = 0;
+            source.rewind();
+            for(int n; (n = source.next(inputs, codes)) > 0; row += n){
+                for(int c=0; c<names.length; c++){
+                    block.clear();
+                    for(int r=0; r<n; r++){
+                        block.putDouble(inputs[r][c]);
+                    }
+                    block.flip();
+                    writeFully(channel, block, dataStart + (c * rows + row) * 8L);
+                }
+                block.clear();
+                for(int r=0; r<n; r++){
+                    block.putInt(codes[r]);
+                }
+                block.flip();
+                writeFully(channel, block, codesStart + row * 4L);
+            }
+            if(row != rows){
+                throw new IOException("The data file changed while converting.");
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        Files.move(temp, destination, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static long align(long offset){
+        return (offset + 7) & ~7L;
+    }
+
+    private static int stringsLength(String[] strings){
+        int ret = 4 * strings.length;
+        for(String s : strings){
+            ret += s.getBytes(StandardCharsets.UTF_8).length;
+        }
+        return ret;
+    }
+
+    private static void writeStrings(ByteBuffer buffer, String[] strings){
+        for(String s : strings){
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            buffer.putInt(bytes.length).put(bytes);
+        }
+    }
+
+    private static String[] readStrings(ByteBuffer buffer, int count){
+        String[] ret = new String[count];
+        for(int i=0; i<count; i++){
+            byte[] bytes = new byte[buffer.getInt()];
+            buffer.get(bytes);
+            ret[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return ret;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while(buffer.hasRemaining()){
+            position += channel.write(buffer, position);
+        }
+    }
+}
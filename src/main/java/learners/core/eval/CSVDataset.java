@@ -5,35 +5,35 @@ import learners.utils.Arithmetic;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Scanner;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A dataset constructed from csv files.
  */
 public class CSVDataset extends Dataset{
+    private static final int CHUNKS_PER_THREAD = 4;
+    private static final long MIN_CHUNK_SIZE = 1 << 20;
     private String path;
+    private String[] attributeNames;
 
     public CSVDataset(boolean nominal){
         super(nominal);
     }
 
-    /**
-     * Filter an attribute index.
-     * @param i the candidate attribute index
-     * @param selectedAttributes the list of selected attributes.
-     * @return true if the index is selected.
-     */
-    private boolean isSelected(int i, int[] selectedAttributes){
-        for(int j=0; j<selectedAttributes.length; j++){
-            if(i == selectedAttributes[j]) {
-                return true;
-            }
-        }
-        return false;
-    }
-
     /**
      * Parse an input csv file and initialize this dataset from the file's contents.
      * @param inputStream an input stream
@@ -43,7 +43,7 @@ public class CSVDataset extends Dataset{
     @Override
     public void fromInputStream(InputStream inputStream, int[] selectedAttributes) throws IOException {
         if(inputStream != null){
-            loadFromScanner(new Scanner(inputStream), selectedAttributes);
+            load(new CSVReader(Channels.newChannel(inputStream)), getProjection(selectedAttributes));
         }
     }
 
@@ -57,45 +57,259 @@ public class CSVDataset extends Dataset{
     public void fromFile(String path, int[] selectedAttributes) throws IOException {
         File file = new File(path);
         if(file.exists() && file.canRead()){
-            loadFromScanner(new Scanner(file), selectedAttributes);
+            try (CSVReader reader = new CSVReader(FileChannel.open(file.toPath(), StandardOpenOption.READ))) {
+                load(reader, getProjection(selectedAttributes));
+            }
             this.path = path;
             return;
         }
         throw new IOException("Cannot read input file.");
     }
 
+    /**
+     * Parse an input csv file on several threads and initialize this dataset from the file's contents.
+     * The file is split into byte ranges aligned on line boundaries, which are parsed concurrently and merged
+     * in file order, so the result is identical to {@link #fromFile(String, int[])}.
+     * @param path a path to a data file
+     * @param selectedAttributes a list of attribute indices to include
+     * @param parallelism the number of parsing threads
+     * @throws IOException
+     */
+    public void fromFile(String path, int[] selectedAttributes, int parallelism) throws IOException {
+        File file = new File(path);
+        if(!file.exists() || !file.canRead()){
+            throw new IOException("Cannot read input file.");
+        }
+        if(parallelism <= 1){
+            fromFile(path, selectedAttributes);
+            return;
+        }
+        final Path filePath = file.toPath();
+        final Layout layout;
+        final long dataStart, size;
+        try (FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+            CSVReader reader = new CSVReader(channel);
+            layout = Layout.readHeader(reader, getProjection(selectedAttributes));
+            dataStart = reader.offset();
+            size = channel.size();
+            int numChunks = (int)Math.max(1, Math.min(parallelism * CHUNKS_PER_THREAD, (size - dataStart) / MIN_CHUNK_SIZE));
+            final long[] bounds = new long[numChunks + 1];
+            bounds[0] = dataStart;
+            bounds[numChunks] = size;
+            for(int i=1; i<numChunks; i++){
+                bounds[i] = Math.max(bounds[i-1], lineStart(channel, dataStart + (size - dataStart) * i / numChunks));
+            }
+            List<Callable<Chunk>> tasks = new ArrayList<>(numChunks);
+            for(int i=0; i<numChunks; i++){
+                final int chunk = i;
+                tasks.add(new Callable<Chunk>() {
+                    @Override
+                    public Chunk call() throws IOException {
+                        Chunk ret = new Chunk();
+                        try (FileChannel chunkChannel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+                            chunkChannel.position(bounds[chunk]);
+                            CSVReader chunkReader = new CSVReader(chunkChannel, bounds[chunk+1] - bounds[chunk]);
+                            chunkReader.keepFields(layout.wanted);
+                            parseRows(chunkReader, layout, ret.inputs, ret.targets);
+                        }
+                        return ret;
+                    }
+                });
+            }
+            List<double[]> inputVals = new ArrayList<>();
+            List<String> targetVals = new ArrayList<>();
+            for(Chunk chunk : invokeAll(tasks, parallelism)){
+                inputVals.addAll(chunk.inputs);
+                targetVals.addAll(chunk.targets);
+            }
+            reset(inputVals, targetVals);
+        }
+        attributeNames = layout.names;
+        this.path = path;
+    }
+
+    /**
+     * Convert a csv file into a binary dataset file, for fast reloading with {@link BinaryDataset}.
+     * The csv file is streamed, so it does not need to fit in memory.
+     * @param csvPath a path to a csv data file
+     * @param binaryPath the path of the binary file to write
+     * @param projection the attribute columns to convert, or null for all of them
+     * @throws IOException
+     */
+    public static void toBinary(String csvPath, String binaryPath, Projection projection) throws IOException {
+        try (StreamingCSVDataset source = new StreamingCSVDataset(true)) {
+            source.setProjection(projection);
+            source.fromFile(csvPath, null);
+            BinaryDataset.write(source, binaryPath);
+        }
+    }
+
     @Override
     public String getDataPath(){
         return path;
     }
 
-    private void loadFromScanner(Scanner scanner, int[] selectedAttributes) throws IOException {
+    /**
+     * Get the names of the loaded attributes, from the file's header.
+     * @return the attribute names
+     */
+    public String[] getAttributeNames(){
+        return attributeNames;
+    }
+
+    private void load(CSVReader reader, Projection projection) throws IOException {
         List<double[]> inputVals = new ArrayList<>();
         List<String> targetVals = new ArrayList<>();
-        String header = scanner.nextLine();
-        int numCols = header.split(",").length;
-        while (scanner.hasNext()){
-            String toks[] = scanner.nextLine().split(",");
-            if(toks.length != numCols){
-                throw new IOException("Malformatted CSV file: unequal number of columns.");
+        Layout layout = Layout.readHeader(reader, projection);
+        parseRows(reader, layout, inputVals, targetVals);
+        reset(inputVals, targetVals);
+        attributeNames = layout.names;
+    }
+
+    private void reset(List<double[]> inputVals, List<String> targetVals){
+        double[][] inputs = inputVals.toArray(new double[inputVals.size()][]);
+        String[] targets = targetVals.toArray(new String[targetVals.size()]);
+        this.reset(inputs, targets);
+    }
+
+    /**
+     * Parse the remaining rows of a reader, skipping rows with missing values.
+     * @param reader the reader, past the header
+     * @param layout the columns of the file
+     * @param inputVals the list to add the input vectors to
+     * @param targetVals the list to add the labels to
+     * @throws IOException if a row does not have as many columns as the header
+     */
+    private static void parseRows(CSVReader reader, Layout layout, List<double[]> inputVals, List<String> targetVals) throws IOException {
+        while (reader.nextRow()){
+            double cur[] = new double[layout.fields.length];
+            if(parseRow(reader, layout, cur)){
+                inputVals.add(cur);
+                targetVals.add(reader.label(layout.numCols - 1));
+            }
+        }
+    }
+
+    /**
+     * Parse the projected attributes of the reader's current row.
+     * @param reader the reader
+     * @param layout the columns of the file
+     * @param cur the buffer receiving the attributes
+     * @return false if the row has missing values.
+     * @throws IOException if the row does not have as many columns as the header
+     */
+    static boolean parseRow(CSVReader reader, Layout layout, double[] cur) throws IOException {
+        if(reader.numFields() != layout.numCols){
+            throw new IOException("Malformatted CSV file: unequal number of columns.");
+        }
+        int[] fields = layout.fields;
+        for(int i=0; i<cur.length; i++){
+            cur[i] = fields[i] >= 0 ? reader.number(fields[i]) : 0;
+        }
+        return !Arithmetic.isNan(cur);
+    }
+
+    /**
+     * Find the first line that starts at or after an offset.
+     * @param channel the file
+     * @param offset a byte offset
+     * @return the offset of the line start, or the file size if there is none
+     * @throws IOException
+     */
+    private static long lineStart(FileChannel channel, long offset) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        long pos = offset - 1;
+        while(true){
+            buffer.clear();
+            int n = channel.read(buffer, pos);
+            if(n <= 0){
+                return channel.size();
             }
-            double cur[] = new double[toks.length - 1];
-            for(int i=0; i<cur.length; i++){
-                if(selectedAttributes == null || isSelected(i, selectedAttributes)){
-                    cur[i] = Double.parseDouble(toks[i]);
+            for(int i=0; i<n; i++){
+                if(buffer.get(i) == '\n'){
+                    return pos + i + 1;
                 }
             }
-            if(!Arithmetic.isNan(cur)){
-                inputVals.add(cur);
-                targetVals.add(toks[toks.length-1]);
+            pos += n;
+        }
+    }
+
+    private static <T> List<T> invokeAll(List<Callable<T>> tasks, int parallelism) throws IOException {
+        final AtomicInteger count = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, tasks.size()), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "csv-parse-" + count.getAndIncrement());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        try {
+            List<T> ret = new ArrayList<>(tasks.size());
+            for(Future<T> future : executor.invokeAll(tasks)){
+                ret.add(future.get());
+            }
+            return ret;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while parsing.");
+        } catch (ExecutionException e) {
+            if(e.getCause() instanceof IOException){
+                throw (IOException)e.getCause();
             }
+            if(e.getCause() instanceof RuntimeException){
+                throw (RuntimeException)e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * The columns of a csv file, bound to a projection.
+     */
+    static final class Layout {
+        final int numCols; /*the number of columns in the header, including the label*/
+        final int[] fields; /*the column of each projected attribute, -1 for attributes kept as zeros*/
+        final String[] names; /*the name of each projected attribute*/
+        final boolean[] wanted; /*the columns the tokenizer keeps*/
+
+        private Layout(int numCols, int[] fields, String[] names){
+            this.numCols = numCols;
+            this.fields = fields;
+            this.names = names;
+            this.wanted = Projection.wanted(numCols, fields);
         }
-        double[][] inputs = new double[inputVals.size()][];
-        String[] targets = new String[inputVals.size()];
-        for(int i=0; i<inputs.length; i++){
-            inputs[i] = inputVals.get(i);
-            targets[i] = targetVals.get(i);
+
+        /**
+         * Read the header row of a file and restrict the reader to the projected columns.
+         * @param reader a reader at the start of the file
+         * @param projection the attribute columns to load
+         * @return the layout of the file
+         * @throws IOException if the header is missing or lacks a projected column
+         */
+        static Layout readHeader(CSVReader reader, Projection projection) throws IOException {
+            if(!reader.nextRow()){
+                throw new IOException("Malformatted CSV file: missing header.");
+            }
+            int numCols = reader.numFields();
+            String[] header = new String[Math.max(0, numCols - 1)];
+            for(int i=0; i<header.length; i++){
+                header[i] = reader.text(i);
+            }
+            int[] fields = projection.bind(header);
+            Layout ret = new Layout(numCols, fields, projection.names(header, fields));
+            reader.keepFields(ret.wanted);
+            return ret;
         }
-        this.reset(inputs, targets);
+    }
+
+    /**
+     * The rows parsed from one byte range of a file.
+     */
+    private static final class Chunk {
+        final List<double[]> inputs = new ArrayList<>();
+        final List<String> targets = new ArrayList<>();
     }
 }
@@ -0,0 +1,345 @@
+package learners.core.eval;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A byte-level csv tokenizer.
+ * Lines are read through a large reusable buffer and split on commas in place; numeric fields are parsed
+ * straight from the bytes and labels are interned, so no per-line strings are built.
+ */
+final class CSVReader implements Closeable {
+    private static final int BUFFER_SIZE = 1 << 20;
+    private static final int MAX_FAST_DIGITS = 15; /*decimal digits that always fit exactly in a double's mantissa*/
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private final ReadableByteChannel channel;
+    private long remaining; /*bytes still to be read from the channel*/
+    private long read; /*bytes read from the channel so far*/
+    private boolean eof;
+    private byte[] buffer;
+    private int position, limit; /*the unconsumed bytes are buffer[position, limit)*/
+    private int[] starts, ends; /*field boundaries of the current row*/
+    private int numFields;
+    private boolean[] wanted; /*the fields to keep, or null for all of them*/
+    private final Labels labels;
+
+    CSVReader(ReadableByteChannel channel){
+        this(channel, Long.MAX_VALUE);
+    }
+
+    /**
+     * Construct a reader over the next {@code length} bytes of a channel.
+     * @param channel the channel to read from
+     * @param length the maximum number of bytes to read
+     */
+    CSVReader(ReadableByteChannel channel, long length){
+        this.channel = channel;
+        this.remaining = length;
+        buffer = new byte[(int)Math.max(64, Math.min(BUFFER_SIZE, length))];
+        starts = new int[16];
+        ends = new int[16];
+        labels = new Labels();
+    }
+
+    /**
+     * Advance to the next non-blank row and split it into fields.
+     * @return false if the input is exhausted.
+     * @throws IOException
+     */
+    boolean nextRow() throws IOException {
+        while(position < limit || fill()){
+            int end = lineEnd();
+            int start = position;
+            position = end < limit ? end + 1 : end;
+            if(end > start && buffer[end-1] == '\r'){
+                end--;
+            }
+            if(!isBlank(start, end)){
+                split(start, end);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Restrict the fields kept from the next rows.
+     * Other fields are still counted, but their boundaries are not recorded and they cannot be read.
+     * @param wanted a flag per field, or null to keep all the fields
+     */
+    void keepFields(boolean[] wanted){
+        this.wanted = wanted;
+    }
+
+    /**
+     * Get the number of fields in the current row.
+     * Trailing empty fields are not counted, as with {@link String#split(String)}.
+     * @return the number of fields
+     */
+    int numFields(){
+        return numFields;
+    }
+
+    /**
+     * Parse a field of the current row as a number.
+     * @param field the field index
+     * @return the parsed value
+     * @throws NumberFormatException if the field is not a number
+     */
+    double number(int field){
+        return parseDouble(buffer, starts[field], ends[field]);
+    }
+
+    /**
+     * Get a field of the current row as a shared label string.
+     * Equal fields map to the same string instance.
+     * @param field the field index
+     * @return the label
+     */
+    String label(int field){
+        return field < numFields ? labels.get(buffer, starts[field], ends[field]) : "";
+    }
+
+    /**
+     * Get a field of the current row as a new string.
+     * @param field the field index
+     * @return the field's text
+     */
+    String text(int field){
+        return field < numFields ? new String(buffer, starts[field], ends[field] - starts[field], StandardCharsets.UTF_8) : "";
+    }
+
+    /**
+     * Get the offset of the next unread row from where this reader started.
+     * @return a byte offset
+     */
+    long offset(){
+        return read - (limit - position);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private int lineEnd() throws IOException {
+        int scanned = 0;
+        while(true){
+            for(int i=position+scanned; i<limit; i++){
+                if(buffer[i] == '\n'){
+                    return i;
+                }
+            }
+            scanned = limit - position;
+            if(!fill()){
+                return limit;
+            }
+        }
+    }
+
+    private boolean fill() throws IOException {
+        if(eof){
+            return false;
+        }
+        if(position > 0){
+            System.arraycopy(buffer, position, buffer, 0, limit - position);
+            limit -= position;
+            position = 0;
+        }
+        if(limit == buffer.length){
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        int len = (int)Math.min(buffer.length - limit, remaining);
+        int read = len > 0 ? channel.read(ByteBuffer.wrap(buffer, limit, len)) : -1;
+        if(read < 0){
+            eof = true;
+            return false;
+        }
+        limit += read;
+        remaining -= read;
+        this.read += read;
+        return true;
+    }
+
+    private boolean isBlank(int start, int end){
+        for(int i=start; i<end; i++){
+            if((buffer[i] & 0xff) > ' '){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void split(int start, int end){
+        int field = 0, fieldStart = start, lastNonEmpty = -1;
+        for(int i=start; i<end; i++){
+            if(buffer[i] == ','){
+                if(i > fieldStart){
+                    lastNonEmpty = field;
+                }
+                addField(field++, fieldStart, i);
+                fieldStart = i + 1;
+            }
+        }
+        if(end > fieldStart){
+            lastNonEmpty = field;
+        }
+        addField(field, fieldStart, end);
+        numFields = lastNonEmpty + 1;
+    }
+
+    private void addField(int field, int start, int end){
+        if(wanted != null && (field >= wanted.length || !wanted[field])){
+            return;
+        }
+        if(field >= starts.length){
+            starts = Arrays.copyOf(starts, Math.max(field + 1, starts.length * 2));
+            ends = Arrays.copyOf(ends, starts.length);
+        }
+        starts[field] = start;
+        ends[field] = end;
+    }
+
+    /**
+     * Parse a decimal number from ascii bytes.
+     * Plain decimals of up to 15 significant digits with small exponents are converted exactly with a single
+     * multiplication or division; anything else falls back to {@link Double#parseDouble(String)}, so the result
+     * is always identical to it.
+     * @param bytes the bytes
+     * @param from the first byte of the number
+     * @param to the end of the number (exclusive)
+     * @return the parsed value
+     */
+    static double parseDouble(byte[] bytes, int from, int to){
+        int i = from;
+        boolean negative = false;
+        if(i < to && (bytes[i] == '-' || bytes[i] == '+')){
+            negative = bytes[i] == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int significant = 0, exponent = 0;
+        boolean hasDigits = false, fraction = false;
+        for(; i<to; i++){
+            int b = bytes[i];
+            if(b == '.' && !fraction){
+                fraction = true;
+                continue;
+            }
+            int d = b - '0';
+            if(d < 0 || d > 9){
+                break;
+            }
+            hasDigits = true;
+            mantissa = mantissa * 10 + d;
+            if(mantissa != 0 && ++significant > MAX_FAST_DIGITS){
+                return slowParseDouble(bytes, from, to);
+            }
+            if(fraction){
+                exponent--;
+            }
+        }
+        if(i < to && hasDigits && (bytes[i] == 'e' || bytes[i] == 'E')){
+            i++;
+            boolean negativeExponent = false;
+            if(i < to && (bytes[i] == '-' || bytes[i] == '+')){
+                negativeExponent = bytes[i] == '-';
+                i++;
+            }
+            int exp = 0, expStart = i;
+            for(; i<to && i-expStart < 4; i++){
+                int d = bytes[i] - '0';
+                if(d < 0 || d > 9){
+                    break;
+                }
+                exp = exp * 10 + d;
+            }
+            if(i == expStart){
+                return slowParseDouble(bytes, from, to);
+            }
+            exponent += negativeExponent ? -exp : exp;
+        }
+        if(i != to || !hasDigits || exponent < -22 || exponent > 22){
+            return slowParseDouble(bytes, from, to);
+        }
+        double value = mantissa;
+        value = exponent < 0 ? value / POWERS_OF_TEN[-exponent] : value * POWERS_OF_TEN[exponent];
+        return negative ? -value : value;
+    }
+
+    private static double slowParseDouble(byte[] bytes, int from, int to){
+        return Double.parseDouble(new String(bytes, from, to - from, StandardCharsets.ISO_8859_1));
+    }
+
+    /**
+     * An open-addressing table of label strings keyed by their bytes.
+     */
+    private static final class Labels {
+        private byte[][] keys = new byte[16][];
+        private String[] values = new String[16];
+        private int size;
+
+        String get(byte[] bytes, int from, int to){
+            int hash = 1;
+            for(int i=from; i<to; i++){
+                hash = 31 * hash + bytes[i];
+            }
+            int mask = keys.length - 1;
+            for(int slot = hash & mask; ; slot = (slot + 1) & mask){
+                byte[] key = keys[slot];
+                if(key == null){
+                    key = Arrays.copyOfRange(bytes, from, to);
+                    String value = new String(key, StandardCharsets.UTF_8);
+                    keys[slot] = key;
+                    values[slot] = value;
+                    if(++size * 2 > keys.length){
+                        grow();
+                    }
+                    return value;
+                }
+                if(key.length == to - from && equals(key, bytes, from)){
+                    return values[slot];
+                }
+            }
+        }
+
+        private static boolean equals(byte[] key, byte[] bytes, int from){
+            for(int i=0; i<key.length; i++){
+                if(key[i] != bytes[from + i]){
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void grow(){
+            byte[][] oldKeys = keys;
+            String[] oldValues = values;
+            keys = new byte[oldKeys.length * 2][];
+            values = new String[oldKeys.length * 2];
+            int mask = keys.length - 1;
+            for(int i=0; i<oldKeys.length; i++){
+                if(oldKeys[i] != null){
+                    int hash = 1;
+                    for(byte b : oldKeys[i]){
+                        hash = 31 * hash + b;
+                    }
+                    int slot = hash & mask;
+                    while(keys[slot] != null){
+                        slot = (slot + 1) & mask;
+                    }
+                    keys[slot] = oldKeys[i];
+                    values[slot] = oldValues[i];
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,305 @@
+package learners.core.eval;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A dataset stored as one contiguous block of attributes and an array of label codes.
+ * <p>Rows are kept row-major in a single double or float array instead of one array per instance, and each instance
+ * stores its label as an int; instances of the same label share one target vector. Instances are read through the
+ * cursor, which copies rows into the caller's buffers, and {@link #getInputs()} and {@link #getTargets()} return
+ * null.</p>
+ */
+public class CompactDataset extends Dataset {
+    private static final int INITIAL_CAPACITY = 1024; /*rows*/
+
+    private final boolean singlePrecision;
+    private String path;
+    private String[] attributeNames;
+    private int numInstances, numAttributes;
+    private double[] doubles; /*row-major attributes in double precision, or null*/
+    private float[] floats; /*row-major attributes in single precision, or null*/
+    private int[] labelCodes;
+    private double[][] labelTargets; /*target vector of each label*/
+    private int cursor;
+
+    public CompactDataset(boolean nominal){
+        this(nominal, false);
+    }
+
+    /**
+     * Construct a new dataset.
+     * @param nominal whether target values are nominal.
+     * @param singlePrecision whether attributes are stored as floats, halving the memory of the attributes.
+     */
+    public CompactDataset(boolean nominal, boolean singlePrecision){
+        super(nominal);
+        this.singlePrecision = singlePrecision;
+    }
+
+    /**
+     * Copy the instances of another dataset, read through its cursor.
+     * <p>The labels and target vectors of the source are kept, so networks trained on either dataset agree.</p>
+     * @param dataset the source dataset, which is rewound
+     * @param singlePrecision whether attributes are stored as floats
+     * @return a compact copy of the dataset
+     * @throws IOException if the source cannot be read
+     */
+    public static CompactDataset of(Dataset dataset, boolean singlePrecision) throws IOException {
+        CompactDataset ret = new CompactDataset(dataset.isNominal(), singlePrecision);
+        Map<TargetKey, Integer> codes = new HashMap<>();
+        List<double[]> targets = new ArrayList<>();
+        double[][] inputs = new double[INITIAL_CAPACITY][], batchTargets = new double[INITIAL_CAPACITY][];
+        dataset.rewind();
+        for(int n; (n = dataset.next(inputs, batchTargets)) > 0; ){
+            for(int r=0; r<n; r++){
+                TargetKey key = new TargetKey(batchTargets[r]);
+                Integer code = codes.get(key);
+                if(code == null){
+                    code = targets.size();
+                    codes.put(key, code);
+                    targets.add(batchTargets[r]);
+                }
+                ret.add(inputs[r], code);
+            }
+        }
+        dataset.rewind();
+        ret.trim();
+        ret.reset(null, null, dataset);
+        ret.labelTargets = targets.toArray(new double[targets.size()][]);
+        ret.path = dataset.getDataPath();
+        return ret;
+    }
+
+    /**
+     * Parse an input csv file into this dataset.
+     * @param path a path to a data file
+     * @param selectedAttributes a list of attribute indices to include
+     * @throws IOException
+     */
+    @Override
+    public void fromFile(String path, int[] selectedAttributes) throws IOException {
+        File file = new File(path);
+        if(!file.exists() || !file.canRead()){
+            throw new IOException("Cannot read input file.");
+        }
+        try (CSVReader reader = new CSVReader(FileChannel.open(file.toPath(), StandardOpenOption.READ))) {
+            load(reader, getProjection(selectedAttributes));
+        }
+        this.path = path;
+    }
+
+    /**
+     * Parse an input csv file into this dataset.
+     * @param inputStream an input stream
+     * @param selectedAttributes a list of attribute indices to include
+     * @throws IOException
+     */
+    @Override
+    public void fromInputStream(InputStream inputStream, int[] selectedAttributes) throws IOException {
+        if(inputStream != null){
+            load(new CSVReader(Channels.newChannel(inputStream)), getProjection(selectedAttributes));
+        }
+    }
+
+    @Override
+    public String getDataPath() {
+        return path;
+    }
+
+    /**
+     * Get the names of the loaded attributes, from the file's header.
+     * @return the attribute names, or null if the dataset was copied from another dataset
+     */
+    public String[] getAttributeNames() {
+        return attributeNames;
+    }
+
+    public int getNumInstances() {
+        return numInstances;
+    }
+
+    public int getNumAttributes() {
+        return numAttributes;
+    }
+
+    public boolean isSinglePrecision() {
+        return singlePrecision;
+    }
+
+    @Override
+    public int[] getLabelCodes() {
+        return labelCodes;
+    }
+
+    /**
+     * Get an attribute of an instance.
+     * @param row the instance
+     * @param attribute the attribute
+     * @return the attribute's value
+     */
+    public double get(int row, int attribute) {
+        int k = row * numAttributes + attribute;
+        return singlePrecision ? floats[k] : doubles[k];
+    }
+
+    /**
+     * Copy the attributes of an instance.
+     * @param row the instance
+     * @param buffer the buffer receiving the attributes
+     * @return the buffer
+     */
+    public double[] getRow(int row, double[] buffer) {
+        int k = row * numAttributes;
+        if(singlePrecision){
+            for(int j=0; j<numAttributes; j++){
+                buffer[j] = floats[k + j];
+            }
+        }else{
+            System.arraycopy(doubles, k, buffer, 0, numAttributes);
+        }
+        return buffer;
+    }
+
+    /**
+     * Get the target vector of an instance.
+     * @param row the instance
+     * @return the target vector, shared by the instances of the same label
+     */
+    public double[] getTarget(int row) {
+        return labelTargets[labelCodes[row]];
+    }
+
+    @Override
+    public boolean hasNext() {
+        return labelCodes != null && cursor < numInstances;
+    }
+
+    @Override
+    public void rewind() {
+        cursor = 0;
+    }
+
+    /**
+     * Copy the next instances out of the attribute block.
+     * <p>Input rows are copied into the arrays already in the buffer when they have the right length, so reusing the
+     * same buffers across calls does not allocate. Target vectors are shared between instances of the same label.</p>
+     */
+    @Override
+    public int next(double[][] inputs, double[][] targets) {
+        int n = hasNext() ? Math.min(inputs.length, numInstances - cursor) : 0;
+        for(int r=0; r<n; r++){
+            if(inputs[r] == null || inputs[r].length != numAttributes){
+                inputs[r] = new double[numAttributes];
+            }
+            getRow(cursor + r, inputs[r]);
+            targets[r] = getTarget(cursor + r);
+        }
+        cursor += n;
+        return n;
+    }
+
+    private void load(CSVReader reader, Projection projection) throws IOException {
+        CSVDataset.Layout layout = CSVDataset.Layout.readHeader(reader, projection);
+        clear(layout.fields.length);
+        Map<String, Integer> codes = new HashMap<>();
+        List<String> labels = new ArrayList<>();
+        double[] cur = new double[numAttributes];
+        while (reader.nextRow()){
+            if(CSVDataset.parseRow(reader, layout, cur)){
+                String label = reader.label(layout.numCols - 1);
+                Integer code = codes.get(label);
+                if(code == null){
+                    code = labels.size();
+                    codes.put(label, code);
+                    labels.add(label);
+                }
+                add(cur, code);
+            }
+        }
+        trim();
+        labelTargets = resetLabels(labels.toArray(new String[labels.size()]));
+        attributeNames = layout.names;
+    }
+
+    private void clear(int numAttributes){
+        this.numAttributes = numAttributes;
+        numInstances = 0;
+        cursor = 0;
+        labelCodes = new int[INITIAL_CAPACITY];
+        doubles = singlePrecision ? null : new double[INITIAL_CAPACITY * numAttributes];
+        floats = singlePrecision ? new float[INITIAL_CAPACITY * numAttributes] : null;
+    }
+
+    /**
+     * Append an instance, growing the block as needed.
+     */
+    private void add(double[] row, int code){
+        if(labelCodes == null){
+            clear(row.length);
+        }
+        if(numInstances == labelCodes.length){
+            int capacity = labelCodes.length * 2;
+            labelCodes = Arrays.copyOf(labelCodes, capacity);
+            if(singlePrecision){
+                floats = Arrays.copyOf(floats, capacity * numAttributes);
+            }else{
+                doubles = Arrays.copyOf(doubles, capacity * numAttributes);
+            }
+        }
+        int k = numInstances * numAttributes;
+        if(singlePrecision){
+            for(int j=0; j<numAttributes; j++){
+                floats[k + j] = (float) row[j];
+            }
+        }else{
+            System.arraycopy(row, 0, doubles, k, numAttributes);
+        }
+        labelCodes[numInstances++] = code;
+    }
+
+    /**
+     * Release the unused capacity of the block.
+     */
+    private void trim(){
+        if(labelCodes == null){
+            clear(0);
+        }
+        labelCodes = Arrays.copyOf(labelCodes, numInstances);
+        if(singlePrecision){
+            floats = Arrays.copyOf(floats, numInstances * numAttributes);
+        }else{
+            doubles = Arrays.copyOf(doubles, numInstances * numAttributes);
+        }
+    }
+
+    /**
+     * Compares target vectors by value.
+     */
+    private static final class TargetKey {
+        private final double[] target;
+
+        TargetKey(double[] target){
+            this.target = target;
+        }
+
+        @Override
+        public boolean equals(Object o){
+            return o instanceof TargetKey && Arrays.equals(target, ((TargetKey) o).target);
+        }
+
+        @Override
+        public int hashCode(){
+            return Arrays.hashCode(target);
+        }
+    }
+}
@@ -2,9 +2,13 @@ package learners.core.eval;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
 
@@ -17,10 +21,12 @@ public abstract class Dataset{
 
     private double[][] inputs; /*Set of input vectors in the dataset*/
     private double[][] targets; /*Set of target values (vectors) corresponding to the input vectors*/
+    private int[] labelCodes; /*the index of each instance's label, in order of first occurrence*/
     private Set<NominalCategory> labelSet; /*Set of pivot target values used in projecting predictions on the training set.*/
     private LabelSet labelMatcher;
     private int index;
     private boolean isNominal; /*Whether categories are nominal*/
+    private Projection projection; /*the attribute columns to load, or null to use the selected attributes*/
 
 
     /**
@@ -43,14 +49,63 @@ public abstract class Dataset{
         return isNominal;
     }
 
+    /**
+     * Select the attribute columns to load, by index or by header name.
+     * <p>Datasets loaded from files afterwards hold compact vectors of the projected attributes, and the
+     * selectedAttributes given when loading are ignored.</p>
+     * @param projection the attribute columns to load, or null to go back to the selected attributes
+     * @return this dataset
+     */
+    public Dataset setProjection(Projection projection){
+        this.projection = projection;
+        return this;
+    }
+
+    /**
+     * Get the attribute columns to load.
+     * @param selectedAttributes a list of attribute indices to include, used when no projection was set
+     * @return the projection set on this dataset, or one keeping every attribute and zeroing the unselected ones
+     */
+    protected final Projection getProjection(int[] selectedAttributes){
+        return projection != null ? projection : Projection.masked(selectedAttributes);
+    }
+
     /**
      * Check if the dataset's cursor can be advanced.
      * @return false if cursor at the end.
      */
-    public final boolean hasNext(){
+    public boolean hasNext(){
         return inputs != null && index < inputs.length;
     }
 
+    /**
+     * Move the cursor back to the first instance.
+     * @throws IOException
+     */
+    public void rewind() throws IOException {
+        index = 0;
+    }
+
+    /**
+     * Read the next instances at the cursor and advance it.
+     * <p>The rows placed in the buffers may be shared with the dataset or reused by the next call, so they must not be
+     * modified or retained.</p>
+     * @param inputs a buffer receiving the next input vectors
+     * @param targets a buffer receiving the corresponding target vectors
+     * @return the number of instances read, 0 at the end of the dataset.
+     * @throws IOException
+     */
+    public int next(double[][] inputs, double[][] targets) throws IOException {
+        int n = 0;
+        while(n < inputs.length && hasNext()){
+            inputs[n] = this.inputs[index];
+            targets[n] = this.targets[index];
+            n++;
+            index++;
+        }
+        return n;
+    }
+
     /**
      * Get all input vectors.
      * @return
@@ -67,6 +122,15 @@ public abstract class Dataset{
         return targets;
     }
 
+    /**
+     * Get the label of every instance as an index into the labels, in order of their first occurrence.
+     * <p>Instances with the same label share the same target vector in {@link #getTargets()}.</p>
+     * @return the label codes, or null if the dataset does not keep its instances in memory
+     */
+    public int[] getLabelCodes() {
+        return labelCodes;
+    }
+
     /**
      * Get label mappings
      * @return
@@ -75,6 +139,20 @@ public abstract class Dataset{
         return labelMatcher;
     }
 
+    /**
+     * Build label mappings from labels and their reference points, such as the labels of a saved model.
+     * @param labels the labels
+     * @param targets the target vector of each label
+     * @return the label mappings
+     */
+    public static LabelDist labelDist(String[] labels, double[][] targets){
+        Set<NominalCategory> labelSet = new LinkedHashSet<>();
+        for(int i=0; i<labels.length; i++){
+            labelSet.add(new NominalCategory(labels[i], targets[i]));
+        }
+        return new LabelSet().setLabelSet(labelSet);
+    }
+
     /**
      * Initialize the dataset.
      * @param inputs a set of input vectors.
@@ -83,30 +161,63 @@ public abstract class Dataset{
     protected final void reset(double[][] inputs, String[] targets){
         this.inputs = inputs;
         this.targets = new double[targets.length][];
-        labelSet = new HashSet<>();
+        this.labelCodes = new int[targets.length];
+        labelSet = new LinkedHashSet<>();
         Map<String, Integer> targetsMap = new HashMap<>();
         for(String s : targets){
             if(!targetsMap.containsKey(s)){
                 targetsMap.put(s, targetsMap.keySet().size());
             }
         }
+        double[][] labelTargets = new double[targetsMap.size()][]; /*one target vector per label, shared by its instances*/
         for(int i=0; i<targets.length; i++){
-            if(isNominal()) {
-                this.targets[i] = new double[targetsMap.keySet().size()];
-                this.targets[i][targetsMap.get(targets[i])] = 1;
+            int code = targetsMap.get(targets[i]);
+            if(labelTargets[code] == null){
+                if(isNominal()) {
+                    labelTargets[code] = new double[labelTargets.length];
+                    labelTargets[code][code] = 1;
+                }else{
+                    labelTargets[code] = new double[]{code};
+                }
+                labelSet.add(new NominalCategory(targets[i], labelTargets[code]));
+            }
+            this.labelCodes[i] = code;
+            this.targets[i] = labelTargets[code];
+        }
+        labelMatcher = labelMatcher.setLabelSet(labelSet);
+        index = 0;
+    }
+
+    /**
+     * Initialize the label set only, for datasets that do not keep their instances in memory.
+     * @param labels the distinct target values, in order of first occurrence.
+     * @return the target vector of each label.
+     */
+    protected final double[][] resetLabels(String[] labels){
+        this.inputs = null;
+        this.targets = null;
+        this.labelCodes = null;
+        labelSet = new LinkedHashSet<>();
+        double[][] ret = new double[labels.length][];
+        for(int i=0; i<labels.length; i++){
+            if(isNominal()){
+                ret[i] = new double[labels.length];
+                ret[i][i] = 1;
             }else{
-                this.targets[i] = new double[]{targetsMap.get(targets[i])};
+                ret[i] = new double[]{i};
             }
-            labelSet.add(new NominalCategory(targets[i], this.targets[i]));
+            labelSet.add(new NominalCategory(labels[i], ret[i]));
         }
         labelMatcher = labelMatcher.setLabelSet(labelSet);
         index = 0;
+        return ret;
     }
 
     protected final void reset(double[][] inputs, double[][] targets, Dataset labelDist){
-        this.labelSet = new HashSet(labelDist.labelSet);
+        this.labelSet = new LinkedHashSet<>(labelDist.labelSet);
         this.inputs = inputs;
         this.targets = targets;
+        this.labelCodes = null;
         labelMatcher = labelMatcher.setLabelSet(labelSet);
         index = 0;
     }
@@ -169,15 +280,87 @@ public abstract class Dataset{
     }
 
     private static final class LabelSet implements LabelDist, Serializable{
+        private static final long serialVersionUID = 773857692346062971L;
         private Set<NominalCategory> labelSet;
+        private transient NominalCategory[] categories; /*the label table, ordered by class code*/
+        private transient boolean oneHot; /*whether category i is the unit vector i, so that matching is an argmax*/
+        private transient Map<String, Integer> indices; /*label to index in the table*/
 
         private LabelSet(){}
 
         private LabelSet setLabelSet(Set<NominalCategory> labelSet){
             this.labelSet = labelSet;
+            index();
             return this;
         }
 
+        private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+            in.defaultReadObject();
+            index();
+        }
+
+        /**
+         * Build the label table: one category per label, since label sets saved by earlier versions hold one category
+         * per training instance, ordered by class code, i.e. by the position of the one in one-hot targets or by the
+         * value of numeric targets.
+         */
+        private void index(){
+            Map<String, NominalCategory> distinct = new LinkedHashMap<>();
+            for(NominalCategory category : labelSet){
+                if(!distinct.containsKey(category.label)){
+                    distinct.put(category.label, category);
+                }
+            }
+            NominalCategory[] table = distinct.values().toArray(new NominalCategory[distinct.size()]);
+            NominalCategory[] ordered = new NominalCategory[table.length];
+            boolean unit = true, scalar = true;
+            for(NominalCategory category : table){
+                int code = oneHotCode(category.numerciValue, table.length);
+                if(code < 0 || ordered[code] != null){
+                    unit = false;
+                }else{
+                    ordered[code] = category;
+                }
+                scalar &= category.numerciValue != null && category.numerciValue.length == 1;
+            }
+            if(unit){
+                table = ordered;
+            }else if(scalar){
+                Arrays.sort(table, new Comparator<NominalCategory>() {
+                    @Override
+                    public int compare(NominalCategory c1, NominalCategory c2) {
+                        return Double.compare(c1.numerciValue[0], c2.numerciValue[0]);
+                    }
+                });
+            }
+            Map<String, Integer> ret = new HashMap<>();
+            for(int i=0; i<table.length; i++){
+                ret.put(table[i].label, i);
+            }
+            categories = table;
+            oneHot = unit && table.length > 0;
+            indices = ret;
+        }
+
+        /**
+         * Get the position of the one in a one-hot vector.
+         * @return the position, or -1 if the vector is not one-hot
+         */
+        private static int oneHotCode(double[] vector, int length){
+            if(vector == null || vector.length != length){
+                return -1;
+            }
+            int ret = -1;
+            for(int i=0; i<vector.length; i++){
+                if(vector[i] == 1 && ret < 0){
+                    ret = i;
+                }else if(vector[i] != 0){
+                    return -1;
+                }
+            }
+            return ret;
+        }
+
         @Override
         public double dist(double[] p1, double[] p2){
             if(p1 != null && p2 != null && p1.length == p2.length && p1.length > 0){
@@ -192,19 +375,72 @@ public abstract class Dataset{
 
         @Override
         public String getBestMatch(double[] target){
-            NominalCategory bestMatch = null;
+            return getLabel(getBestMatchIndex(target));
+        }
+
+        @Override
+        public int getBestMatchIndex(double[] target){
+            if(oneHot && target != null && target.length == categories.length){
+                return argmax(target);
+            }
+            int bestMatch = -1;
             double diff = 0;
-            for(NominalCategory categ : labelSet){
-                double curDiff = dist(target, categ.numerciValue);
-                if(bestMatch == null || curDiff < diff){
+            for(int i=0; i<categories.length; i++){
+                double curDiff = dist(target, categories[i].numerciValue);
+                if(bestMatch < 0 || curDiff < diff){
                     diff = curDiff;
-                    bestMatch = categ;
+                    bestMatch = i;
                 }
             }
-            if(bestMatch != null){
-                return String.valueOf(bestMatch.label);
+            return bestMatch;
+        }
+
+        /**
+         * Match a vector to the closest unit vector, which is its largest component: the squared distance to unit
+         * vector i is |target|^2 - 2*target[i] + 1. Like the distance search, the first of tied components wins, and
+         * a vector with a NaN component matches the first label.
+         */
+        private static int argmax(double[] target){
+            int ret = 0;
+            double max = target[0];
+            if(max != max){
+                return 0;
+            }
+            for(int i=1; i<target.length; i++){
+                double x = target[i];
+                if(x != x){
+                    return 0;
+                }
+                if(x > max){
+                    max = x;
+                    ret = i;
+                }
+            }
+            return ret;
+        }
+
+        @Override
+        public String getLabel(int index){
+            if(index >= 0 && index < categories.length){
+                return String.valueOf(categories[index].label);
             }
             return String.valueOf(UNKNOWN_CATEGORY);
         }
+
+        @Override
+        public int indexOf(String label){
+            Integer ret = indices.get(label);
+            return ret != null ? ret : -1;
+        }
+
+        @Override
+        public double[] getTarget(int index){
+            return categories[index].numerciValue.clone();
+        }
+
+        @Override
+        public int numLabels(){
+            return categories.length;
+        }
     }
 }
@@ -1,5 +1,7 @@
 package learners.core.eval;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.Arrays;
 import java.util.Random;
 
@@ -47,6 +49,70 @@ public class DatasetPartition {
         return testingSet;
     }
 
+    /**
+     * Split a dataset into k stratified folds, without copying its instances.
+     * <p>The instances are shuffled once and dealt to the folds label by label, so every fold has about the same label
+     * proportions. The training and testing sets of all partitions are views over the dataset through this one shared
+     * order, read through their cursors; their {@link Dataset#getInputs()} and {@link Dataset#getTargets()} return
+     * null.</p>
+     * @param dataset a dataset held in memory, such as a {@link CSVDataset} or a {@link CompactDataset}
+     * @param folds the number of folds, at least 2
+     * @param seed the seed of the shuffling order
+     * @return one partition per fold, testing on the fold and training on the other folds
+     * @throws IllegalArgumentException if the dataset is only readable through its cursor
+     */
+    public static DatasetPartition[] kFold(Dataset dataset, int folds, long seed){
+        int numInstances;
+        if(dataset instanceof CompactDataset){
+            numInstances = ((CompactDataset) dataset).getNumInstances();
+        }else if(dataset.getInputs() != null){
+            numInstances = dataset.getInputs().length;
+        }else{
+            throw new IllegalArgumentException("Only datasets held in memory can be partitioned.");
+        }
+        int k = Math.max(2, folds);
+        int[] codes = dataset.getLabelCodes();
+        int numLabels = 1;
+        if(codes != null){
+            for(int code : codes){
+                numLabels = Math.max(numLabels, code + 1);
+            }
+        }
+        Random random = new Random(seed);
+        int[] shuffled = new int[numInstances];
+        for(int i=0; i<numInstances; i++){
+            int j = random.nextInt(i + 1);
+            shuffled[i] = shuffled[j];
+            shuffled[j] = i;
+        }
+        int[] labelStarts = new int[numLabels + 1]; /*counting sort of the shuffled instances by label*/
+        for(int i=0; i<numInstances; i++){
+            labelStarts[(codes != null ? codes[i] : 0) + 1]++;
+        }
+        for(int c=0; c<numLabels; c++){
+            labelStarts[c + 1] += labelStarts[c];
+        }
+        int[] byLabel = new int[numInstances];
+        for(int row : shuffled){
+            byLabel[labelStarts[codes != null ? codes[row] : 0]++] = row;
+        }
+        int[] foldStarts = new int[k + 1]; /*dealing the instances round robin, fold f gets every k-th of them*/
+        for(int f=0; f<k; f++){
+            foldStarts[f + 1] = foldStarts[f] + (numInstances - f + k - 1) / k;
+        }
+        int[] order = new int[numInstances];
+        int[] next = Arrays.copyOf(foldStarts, k);
+        for(int i=0; i<numInstances; i++){
+            order[next[i % k]++] = byLabel[i];
+        }
+        DatasetPartition[] ret = new DatasetPartition[k];
+        for(int f=0; f<k; f++){
+            ret[f] = new DatasetPartition(new View(dataset, order, foldStarts[f], foldStarts[f+1], true),
+                    new View(dataset, order, foldStarts[f], foldStarts[f+1], false));
+        }
+        return ret;
+    }
+
     public static DatasetPartition[] stratifyDataset(Dataset dataset, int folds, long seed){
         Random random = new Random(seed);
         DatasetPartition[] ret = new DatasetPartition[Math.max(2, folds)];
@@ -95,4 +161,85 @@ public class DatasetPartition {
         Dataset testingDataset = new Dataset.InheritedDataset(testingInputs, testingTargets, masterDataset);
         return new DatasetPartition(trainingDataset, testingDataset);
     }
+
+    /**
+     * The instances of a dataset in a range of a shared order, or outside of it.
+     */
+    private static final class View extends Dataset {
+        private final Dataset parent;
+        private final int[] order; /*the shared order of the parent's instances*/
+        private final int from, to; /*the range of the order*/
+        private final boolean complement; /*whether the view holds the instances outside of the range*/
+        private int cursor;
+
+        View(Dataset parent, int[] order, int from, int to, boolean complement){
+            super(parent.isNominal());
+            this.parent = parent;
+            this.order = order;
+            this.from = from;
+            this.to = to;
+            this.complement = complement;
+            reset(null, null, parent);
+        }
+
+        private int size(){
+            return complement ? order.length - (to - from) : to - from;
+        }
+
+        private int row(int i){
+            return order[complement ? (i < from ? i : i + to - from) : from + i];
+        }
+
+        @Override
+        public boolean hasNext(){
+            return cursor < size();
+        }
+
+        @Override
+        public void rewind(){
+            cursor = 0;
+        }
+
+        /**
+         * Read the next instances of the view.
+         * <p>Rows of a dataset held as arrays are shared; rows of a {@link CompactDataset} are copied into the arrays
+         * already in the buffer when they have the right length.</p>
+         */
+        @Override
+        public int next(double[][] inputs, double[][] targets){
+            int n = Math.min(inputs.length, size() - cursor);
+            double[][] parentInputs = parent.getInputs(), parentTargets = parent.getTargets();
+            for(int r=0; r<n; r++){
+                int row = row(cursor + r);
+                if(parentInputs != null){
+                    inputs[r] = parentInputs[row];
+                    targets[r] = parentTargets[row];
+                }else{
+                    CompactDataset compact = (CompactDataset) parent;
+                    if(inputs[r] == null || inputs[r].length != compact.getNumAttributes()){
+                        inputs[r] = new double[compact.getNumAttributes()];
+                    }
+                    compact.getRow(row, inputs[r]);
+                    targets[r] = compact.getTarget(row);
+                }
+            }
+            cursor += n;
+            return n;
+        }
+
+        @Override
+        public void fromFile(String path, int[] selectedAttributes) throws IOException {
+            throw new IOException("A partition is a view over another dataset.");
+        }
+
+        @Override
+        public void fromInputStream(InputStream inputStream, int[] selectedAttributes) throws IOException {
+            throw new IOException("A partition is a view over another dataset.");
+        }
+
+        @Override
+        public String getDataPath(){
+            return (parent.getDataPath() != null ? parent.getDataPath() : "") + "_view";
+        }
+    }
 }
@@ -2,6 +2,8 @@ package learners.core.eval;
 
 /**
  * Interface for calculating error/distance between vectors.
+ * <p>The methods addressing reference points by index are optional: their default implementations throw
+ * {@link UnsupportedOperationException}, and the classifier's index-based methods need them.</p>
  */
 public interface LabelDist {
 
@@ -20,4 +22,55 @@ public interface LabelDist {
      * @return
      */
     String getBestMatch(double[] target);
+
+    /**
+     * Match a vector to the index of the closest reference point, without allocating.
+     * <p>When the references are one-hot vectors, as for nominal labels, the closest one is found by an argmax
+     * over the vector.</p>
+     * @param target the vector to match
+     * @return the index of the best match, or -1 if there are no references.
+     * @throws UnsupportedOperationException if the references are not indexed
+     */
+    default int getBestMatchIndex(double[] target){
+        throw new UnsupportedOperationException("Label indices are not supported.");
+    }
+
+    /**
+     * Get the name of a reference point.
+     * @param index an index from {@link #getBestMatchIndex(double[])}
+     * @return the reference's label
+     * @throws UnsupportedOperationException if the references are not indexed
+     */
+    default String getLabel(int index){
+        throw new UnsupportedOperationException("Label indices are not supported.");
+    }
+
+    /**
+     * Get the index of a label.
+     * @param label the label
+     * @return the index of the label's reference point, or -1 if there is no such label
+     * @throws UnsupportedOperationException if the references are not indexed
+     */
+    default int indexOf(String label){
+        throw new UnsupportedOperationException("Label indices are not supported.");
+    }
+
+    /**
+     * Get a reference point, such as the target vector of a label.
+     * @param index a label index
+     * @return a copy of the reference point
+     * @throws UnsupportedOperationException if the references are not indexed
+     */
+    default double[] getTarget(int index){
+        throw new UnsupportedOperationException("Label indices are not supported.");
+    }
+
+    /**
+     * Get the number of reference points.
+     * @return the number of labels
+     * @throws UnsupportedOperationException if the references are not indexed
+     */
+    default int numLabels(){
+        throw new UnsupportedOperationException("Label indices are not supported.");
+    }
 }
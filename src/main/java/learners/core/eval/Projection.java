@@ -0,0 +1,130 @@
+package learners.core.eval;
+
+import java.io.IOException;
+
+/**
+ * A selection of the attribute columns of a csv file, by index or by header name.
+ * <p>Loading a file with a projection, see {@link Dataset#setProjection(Projection)}, produces compact vectors holding
+ * only the selected attributes, in the order they were given, and the other columns are skipped by the tokenizer
+ * without being converted to numbers.</p>
+ */
+public final class Projection {
+    private final int[] indices; /*selected columns by index, or null*/
+    private final String[] names; /*selected columns by header name, or null*/
+    private final boolean masked; /*whether unselected attributes are kept as zeros*/
+
+    private Projection(int[] indices, String[] names, boolean masked){
+        this.indices = indices;
+        this.names = names;
+        this.masked = masked;
+    }
+
+    /**
+     * Select attribute columns by index.
+     * @param indices the column indices, in the order of the projected vectors
+     * @return a projection
+     */
+    public static Projection columns(int... indices){
+        return new Projection(indices.clone(), null, false);
+    }
+
+    /**
+     * Select attribute columns by header name.
+     * @param names the column names, in the order of the projected vectors
+     * @return a projection
+     */
+    public static Projection columns(String... names){
+        return new Projection(null, names.clone(), false);
+    }
+
+    /**
+     * Keep every attribute column, zeroing the unselected ones, as loading with a list of attribute indices does.
+     * @param selectedAttributes a list of attribute indices to include, or null for all of them
+     * @return a projection
+     */
+    static Projection masked(int[] selectedAttributes){
+        return new Projection(selectedAttributes, null, true);
+    }
+
+    /**
+     * Map the slots of the projected vectors to the columns of a file.
+     * @param header the attribute names of the file, without the label column
+     * @return the column of each slot, or -1 for a slot that is always zero
+     * @throws IOException if a selected column is not in the file
+     */
+    int[] bind(String[] header) throws IOException {
+        if(masked){
+            int[] ret = new int[header.length];
+            for(int i=0; i<ret.length; i++){
+                ret[i] = indices == null ? i : -1;
+            }
+            if(indices != null){
+                for(int i : indices){
+                    if(i >= 0 && i < ret.length){
+                        ret[i] = i;
+                    }
+                }
+            }
+            return ret;
+        }
+        if(indices != null){
+            for(int i : indices){
+                if(i < 0 || i >= header.length){
+                    throw new IOException("No attribute column at index " + i + ".");
+                }
+            }
+            return indices.clone();
+        }
+        int[] ret = new int[names.length];
+        for(int i=0; i<names.length; i++){
+            ret[i] = indexOf(header, names[i]);
+            if(ret[i] < 0){
+                throw new IOException("No attribute column named " + names[i] + ".");
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Get the names of the projected attributes.
+     * @param header the attribute names of the file, without the label column
+     * @param fields the bound columns, from {@link #bind(String[])}
+     * @return the name of each slot of the projected vectors
+     */
+    String[] names(String[] header, int[] fields){
+        if(masked){
+            return header.clone();
+        }
+        String[] ret = new String[fields.length];
+        for(int i=0; i<fields.length; i++){
+            ret[i] = header[fields[i]];
+        }
+        return ret;
+    }
+
+    /**
+     * Flag the columns a tokenizer must keep: the bound attribute columns and the label column.
+     * @param numCols the number of columns in the file, including the label
+     * @param fields the bound columns, from {@link #bind(String[])}
+     * @return a flag per column
+     */
+    static boolean[] wanted(int numCols, int[] fields){
+        boolean[] ret = new boolean[numCols];
+        for(int f : fields){
+            if(f >= 0){
+                ret[f] = true;
+            }
+        }
+        ret[numCols - 1] = true;
+        return ret;
+    }
+
+    private static int indexOf(String[] header, String name){
+        for(int i=0; i<header.length; i++){
+            if(header[i].trim().equals(name)){
+                return i;
+            }
+        }
+        return -1;
+    }
+}
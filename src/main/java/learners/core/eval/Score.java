@@ -1,59 +1,128 @@
 package learners.core.eval;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
+/**
+ * Evaluation counters over a set of labels: a confusion matrix, the number of predictions within the margin and the
+ * summed prediction error.
+ * <p>Memory only depends on the number of labels. Results can be recorded from several threads at once, each thread
+ * counting into one of a few stripes, and scores of separate shards of a dataset can be merged.</p>
+ */
 public class Score {
-    private int pos, neg;
+    private static final int STRIPES = 8; /*a power of two*/
     private LabelDist labelDist;
-    private Map<String, List<String>> predictionMatrix;
-    private Map<String, Integer> predictions;
-    private double margin, mse = 0;
+    private double margin;
+    private final int numClasses; /*the labels, then one class for unmatched vectors*/
+    private final AtomicReferenceArray<Counts> stripes = new AtomicReferenceArray<>(STRIPES);
 
     public Score(LabelDist labelDist, double margin){
-        pos = 0;
-        neg = 0;
         this.labelDist = labelDist;
         this.margin = margin;
-        predictionMatrix = new HashMap<>();
-        predictions = new HashMap<>();
-    }
-
-    void incr(){
-        pos++;
-    }
-    void decr(){
-        neg++;
+        numClasses = labelDist.numLabels() + 1;
     }
 
     public double getAccuracy(){
-        return ((double)pos) / (pos + neg);
+        Counts counts = snapshot();
+        return ((double)counts.pos) / (counts.pos + counts.neg);
     }
 
     public void recordResult(double[] expected, double[] prediction, boolean verbose){
         double dist = labelDist.dist(expected, prediction);
-        mse += dist;
-        if(dist <= margin){
-            incr();
-        }else{
-            decr();
+        recordResult(labelDist.getBestMatchIndex(expected), labelDist.getBestMatchIndex(prediction), dist);
+        if(verbose){
+            System.out.println("Expected: " + Arrays.toString(expected) + "; predicted: " + Arrays.toString(prediction) + "; error: " + dist);
         }
-        String expectedLabel = labelDist.getBestMatch(expected);
-        String predictedLabel = labelDist.getBestMatch(prediction);
-        if(!predictionMatrix.containsKey(expectedLabel)){
-            predictionMatrix.put(expectedLabel, new ArrayList<String>());
+    }
+
+    /**
+     * Record a prediction by label index.
+     * @param expected the index of the expected label, see {@link LabelDist#getBestMatchIndex(double[])}
+     * @param predicted the index of the predicted label
+     * @param dist the distance between the expected and predicted vectors
+     */
+    public void recordResult(int expected, int predicted, double dist){
+        int e = expected >= 0 && expected < numClasses - 1 ? expected : numClasses - 1;
+        int p = predicted >= 0 && predicted < numClasses - 1 ? predicted : numClasses - 1;
+        Counts counts = stripe();
+        synchronized (counts) {
+            counts.matrix[e * numClasses + p]++;
+            counts.error += dist;
+            if(dist <= margin){
+                counts.pos++;
+            }else{
+                counts.neg++;
+            }
         }
-        if(!predictions.containsKey(predictedLabel)){
-            predictions.put(predictedLabel, 0);
+    }
+
+    /**
+     * Add the results recorded by another score, such as one computed on another shard of the dataset.
+     * <p>Labels are matched by name, so the other score may use a different label mapping.</p>
+     * @param other a score over the same labels
+     * @return this score
+     */
+    public Score merge(Score other){
+        int[] classes = new int[other.numClasses];
+        if(other.labelDist == labelDist){
+            for(int i=0; i<classes.length; i++){
+                classes[i] = i;
+            }
+        }else{
+            Map<String, Integer> byName = new HashMap<>();
+            for(int i=0; i<numClasses - 1; i++){
+                byName.put(labelDist.getLabel(i), i);
+            }
+            for(int i=0; i<classes.length - 1; i++){
+                Integer c = byName.get(other.labelDist.getLabel(i));
+                if(c == null){
+                    throw new IllegalArgumentException("Cannot merge scores of label " + other.labelDist.getLabel(i) + ".");
+                }
+                classes[i] = c;
+            }
+            classes[classes.length - 1] = numClasses - 1;
         }
-        predictionMatrix.get(expectedLabel).add(predictedLabel);
-        predictions.put(predictedLabel, predictions.get(predictedLabel) + 1);
-        if(verbose){
-            System.out.println("Expected: " + Arrays.toString(expected) + "; predicted: " + Arrays.toString(prediction) + "; error: " + dist);
+        Counts source = other.snapshot();
+        Counts counts = stripe();
+        synchronized (counts) {
+            for(int i=0; i<classes.length; i++){
+                for(int j=0; j<classes.length; j++){
+                    counts.matrix[classes[i] * numClasses + classes[j]] += source.matrix[i * other.numClasses + j];
+                }
+            }
+            counts.pos += source.pos;
+            counts.neg += source.neg;
+            counts.error += source.error;
         }
+        return this;
+    }
+
+    /**
+     * Get the number of predictions of a label.
+     * @param expected the index of the expected label
+     * @param predicted the index of the predicted label
+     * @return the number of instances of the expected label that were predicted as the other label
+     */
+    public int getCount(int expected, int predicted){
+        return snapshot().matrix[expected * numClasses + predicted];
     }
 
     public String printSummary(){
-        int total = pos + neg;
+        Counts counts = snapshot();
+        int total = counts.pos + counts.neg;
+        int[] rowSums = new int[numClasses], colSums = new int[numClasses];
+        for(int i=0; i<numClasses; i++){
+            for(int j=0; j<numClasses; j++){
+                rowSums[i] += counts.matrix[i * numClasses + j];
+                colSums[j] += counts.matrix[i * numClasses + j];
+            }
+        }
+        Map<String, Integer> actuals = new HashMap<>(); /*the expected labels, iterated in the order of the former string maps*/
+        for(int i=0; i<numClasses; i++){
+            if(rowSums[i] > 0){
+                actuals.put(name(i), i);
+            }
+        }
         double AvgPrecision = 0, AvgRecall = 0;
         int globalTP = 0, globalFP = 0, globalTN = 0, globalFN = 0;
         StringBuilder sb = new StringBuilder("\n");
@@ -61,27 +130,21 @@ public class Score {
         sb.append("====Contingency Matrix : ========\n");
         sb.append("---<EXPECTED => {PREDICTED}>-----\n");
         sb.append("---------------------------------\n");
-        for(String actual : predictionMatrix.keySet()){
-            if(!predictions.containsKey(actual)){
-                predictions.put(actual, 0);
-            }
-        }
-        for(String actual : predictionMatrix.keySet()){
+        for(String actual : actuals.keySet()){
+            int a = actuals.get(actual);
             Map<String, Integer> expected = new HashMap<>();
-            int tp = 0, fn = 0;
-            for(String val : predictionMatrix.keySet()){
+            for(String val : actuals.keySet()){
                 expected.put(val, 0);
             }
-            for(String val : predictionMatrix.get(actual)){
-                expected.put(val, expected.get(val) + 1);
-                if(val.equals(actual)){
-                    tp++;
-                }else{
-                    fn++;
+            for(int j=0; j<numClasses; j++){
+                if(counts.matrix[a * numClasses + j] > 0){
+                    expected.put(name(j), counts.matrix[a * numClasses + j]);
                 }
             }
-            int fp = predictions.get(actual) - tp;
-            int tn = total - predictions.get(actual) - fn;
+            int tp = counts.matrix[a * numClasses + a];
+            int fn = rowSums[a] - tp;
+            int fp = colSums[a] - tp;
+            int tn = total - colSums[a] - fn;
             globalTP += tp;
             globalFP += fp;
             globalTN += tn;
@@ -94,14 +157,14 @@ public class Score {
             sb.append("\n");
             sb.append("---------------------------------\n");
         }
-        AvgPrecision /= predictionMatrix.keySet().size();
-        AvgRecall /= predictionMatrix.keySet().size();
+        AvgPrecision /= actuals.size();
+        AvgRecall /= actuals.size();
         double score = 2 * ((AvgPrecision * AvgRecall)/(AvgPrecision + AvgRecall));
         score = Math.round(100 * score)/100.0;
         double accuracy = 1.0 * (globalTP + globalTN) / (globalTN + globalFN + globalFP + globalTP);
         accuracy = Math.round(100 * accuracy)/100.0;
-        mse = Math.sqrt(mse / total);
-        double computational_accuracy = Math.round(100 * getAccuracy())/100.0;
+        double mse = Math.sqrt(counts.error / total);
+        double computational_accuracy = Math.round(100 * ((double)counts.pos) / total)/100.0;
         sb.append("---------------------------------\n");
         sb.append("Evaluation 1: regression");
         sb.append("\n.................................\n");
@@ -117,4 +180,55 @@ public class Score {
         sb.append("\n---------------------------------\n");
         return sb.toString();
     }
+
+    private String name(int index){
+        return labelDist.getLabel(index < numClasses - 1 ? index : -1);
+    }
+
+    /**
+     * Get the counters of the calling thread's stripe.
+     */
+    private Counts stripe(){
+        int i = (int) Thread.currentThread().getId() & (STRIPES - 1);
+        Counts ret = stripes.get(i);
+        if(ret == null){
+            stripes.compareAndSet(i, null, new Counts(numClasses));
+            ret = stripes.get(i);
+        }
+        return ret;
+    }
+
+    /**
+     * Sum the counters of all stripes.
+     */
+    private Counts snapshot(){
+        Counts ret = new Counts(numClasses);
+        for(int i=0; i<STRIPES; i++){
+            Counts counts = stripes.get(i);
+            if(counts != null){
+                synchronized (counts) {
+                    for(int k=0; k<ret.matrix.length; k++){
+                        ret.matrix[k] += counts.matrix[k];
+                    }
+                    ret.pos += counts.pos;
+                    ret.neg += counts.neg;
+                    ret.error += counts.error;
+                }
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * The counters of one stripe.
+     */
+    private static final class Counts {
+        final int[] matrix; /*row-major, expected by predicted label*/
+        int pos, neg;
+        double error; /*the summed distances between expected and predicted vectors*/
+
+        Counts(int numClasses){
+            matrix = new int[numClasses * numClasses];
+        }
+    }
 }
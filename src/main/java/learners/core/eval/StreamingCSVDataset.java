@@ -0,0 +1,210 @@
+package learners.core.eval;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A csv dataset that is read from disk through its cursor instead of being loaded in memory.
+ * <p>Loading the file only scans it for its labels; instances are then parsed on demand by
+ * {@link #next(double[][], double[][])}, and {@link #rewind()} starts a new pass over the file. Memory use does not
+ * depend on the size of the file, but {@link #getInputs()} and {@link #getTargets()} return null.</p>
+ */
+public class StreamingCSVDataset extends Dataset implements Closeable {
+    private String path;
+    private Projection projection;
+    private CSVDataset.Layout layout; /*the columns of the file*/
+    private String[] labels; /*the distinct labels, in order of first occurrence*/
+    private Map<String, Integer> labelCodes; /*label to target index*/
+    private double[][] labelTargets; /*target vector of each label*/
+    private int numInstances;
+    private CSVReader reader; /*the current pass over the file, null once exhausted*/
+    private double[] row; /*the instance at the cursor*/
+    private int rowLabel = -1; /*the label code of the instance at the cursor, -1 at the end*/
+
+    public StreamingCSVDataset(boolean nominal){
+        super(nominal);
+    }
+
+    /**
+     * Scan a csv file for its labels and prepare to stream its instances.
+     * @param path a path to a data file
+     * @param selectedAttributes a list of attribute indices to include
+     * @throws IOException
+     */
+    @Override
+    public void fromFile(String path, int[] selectedAttributes) throws IOException {
+        File file = new File(path);
+        if(!file.exists() || !file.canRead()){
+            throw new IOException("Cannot read input file.");
+        }
+        close();
+        this.path = path;
+        this.projection = getProjection(selectedAttributes);
+        openReader();
+        List<String> labels = new ArrayList<>();
+        labelCodes = new HashMap<>();
+        numInstances = 0;
+        double[] cur = new double[layout.fields.length];
+        try {
+            while (reader.nextRow()){
+                if(CSVDataset.parseRow(reader, layout, cur)){
+                    String label = reader.label(layout.numCols - 1);
+                    if(!labelCodes.containsKey(label)){
+                        labelCodes.put(label, labels.size());
+                        labels.add(label);
+                    }
+                    numInstances++;
+                }
+            }
+        } finally {
+            close();
+        }
+        this.labels = labels.toArray(new String[labels.size()]);
+        labelTargets = resetLabels(this.labels);
+        rewind();
+    }
+
+    /**
+     * Streaming requires a file that can be read more than once.
+     * @throws IOException always
+     */
+    @Override
+    public void fromInputStream(InputStream inputStream, int[] selectedAttributes) throws IOException {
+        throw new IOException("A streaming dataset can only be read from a file.");
+    }
+
+    @Override
+    public String getDataPath() {
+        return path;
+    }
+
+    /**
+     * Get the names of the loaded attributes, from the file's header.
+     * @return the attribute names
+     */
+    public String[] getAttributeNames() {
+        return layout != null ? layout.names : null;
+    }
+
+    /**
+     * Get the number of instances in the file, excluding rows with missing values.
+     * @return the number of instances
+     */
+    public int getNumInstances() {
+        return numInstances;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return rowLabel >= 0;
+    }
+
+    @Override
+    public void rewind() throws IOException {
+        close();
+        if(path == null){
+            return;
+        }
+        openReader();
+        row = new double[layout.fields.length];
+        advance();
+    }
+
+    /**
+     * Parse the next instances from the file.
+     * <p>Input rows are copied into the arrays already in the buffer when they have the right length, so reusing the
+     * same buffers across calls does not allocate. Target vectors are shared between instances of the same label.</p>
+     */
+    @Override
+    public int next(double[][] inputs, double[][] targets) throws IOException {
+        int n = 0;
+        while(n < inputs.length && hasNext()){
+            targets[n] = labelTargets[rowLabel];
+            nextRow(inputs, n);
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * Parse the next instances from the file, with their label codes instead of target vectors.
+     * @param inputs a buffer receiving the next input vectors
+     * @param codes a buffer receiving the index of each instance's label in {@link #labels()}
+     * @return the number of instances read, 0 at the end of the dataset.
+     * @throws IOException
+     */
+    int next(double[][] inputs, int[] codes) throws IOException {
+        int n = 0;
+        while(n < inputs.length && hasNext()){
+            codes[n] = rowLabel;
+            nextRow(inputs, n);
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * Get the distinct labels of the file.
+     * @return the labels, indexed by label code
+     */
+    String[] labels() {
+        return labels;
+    }
+
+    private void nextRow(double[][] inputs, int n) throws IOException {
+        if(inputs[n] == null || inputs[n].length != row.length){
+            inputs[n] = new double[row.length];
+        }
+        System.arraycopy(row, 0, inputs[n], 0, row.length);
+        advance();
+    }
+
+    /**
+     * Close the file of the current pass.
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        rowLabel = -1;
+        if(reader != null){
+            CSVReader current = reader;
+            reader = null;
+            current.close();
+        }
+    }
+
+    private void openReader() throws IOException {
+        reader = new CSVReader(FileChannel.open(new File(path).toPath(), StandardOpenOption.READ));
+        try {
+            layout = CSVDataset.Layout.readHeader(reader, projection);
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Move the cursor to the next instance without missing values, closing the file at the end.
+     */
+    private void advance() throws IOException {
+        while (reader.nextRow()){
+            if(CSVDataset.parseRow(reader, layout, row)){
+                Integer code = labelCodes.get(reader.label(layout.numCols - 1));
+                if(code == null){
+                    throw new IOException("The data file changed while streaming.");
+                }
+                rowLabel = code;
+                return;
+            }
+        }
+        close();
+    }
+}
@@ -1,5 +1,9 @@
 package learners.core.normalization;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 
 /**
@@ -9,7 +13,18 @@ public abstract class FeatureDescriptors implements Serializable {
 
     private static final long serialVersionUID = -540358938L;
 
-    private double[] attributesMean, attributesSTD, attributesMin, attributesMax, attributesRange;
+    private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField("attributesMean", double[].class),
+            new ObjectStreamField("attributesSTD", double[].class),
+            new ObjectStreamField("attributesMin", double[].class),
+            new ObjectStreamField("attributesMax", double[].class),
+            new ObjectStreamField("attributesRange", double[].class),
+            new ObjectStreamField("statistics", FeatureStatistics.class)
+    }; /*the fields of models saved before the descriptors were published as one snapshot*/
+
+    private transient volatile Snapshot snapshot; /*the current descriptors, replaced as a whole*/
+    private FeatureStatistics statistics; /*the statistics of the dataset, kept for online updates*/
+    private transient FeatureStatistics pending; /*statistics of a dataset being integrated in chunks*/
 
     public abstract double[] getAttributesCenters();
 
@@ -32,8 +47,13 @@ public abstract class FeatureDescriptors implements Serializable {
         double ret[][] = new double[attributes.length][];
         invalidate();
         preprocess(attributes);
-        double[] centers = getAttributesCenters();
-        double[] scales = getAttributesScales();
+        Snapshot version;
+        double[] centers, scales;
+        do {
+            version = snapshot;
+            centers = getAttributesCenters();
+            scales = getAttributesScales();
+        } while (version != snapshot); /*centers and scales of the same descriptors*/
         for (int i=0; i<attributes.length; i++){
             ret[i] = new double[attributes[i].length];
             for(int j=0; j<attributes[i].length; j++){
@@ -50,28 +70,95 @@ public abstract class FeatureDescriptors implements Serializable {
      */
     public double[] regulariseInstance(double[] instance){
         double[] ret = new double[instance.length];
-        double[] centers = getAttributesCenters();
-        double[] scales = getAttributesScales();
+        regulariseInstance(instance, ret);
+        return ret;
+    }
+
+    /**
+     * Normalize a raw feature instance into a caller-provided buffer.
+     * @param instance the raw instance to normalize
+     * @param ret the buffer receiving the normalized feature vector
+     */
+    public void regulariseInstance(double[] instance, double[] ret){
+        Snapshot version;
+        double[] centers, scales;
+        do {
+            version = snapshot;
+            centers = getAttributesCenters();
+            scales = getAttributesScales();
+        } while (version != snapshot);
         for (int i=0; i<instance.length; i++){
             ret[i] = (instance[i] - centers[i]) / scales[i];
         }
-        return ret;
+    }
+
+    /**
+     * Normalize a block of row-major raw instances.
+     * @param instances the raw instances
+     * @param offset the index of the first value to normalize in the instances
+     * @param ret the buffer receiving the normalized rows, starting at index 0
+     * @param rows the number of rows to normalize
+     */
+    public void regulariseInstances(double[] instances, int offset, double[] ret, int rows){
+        Snapshot version;
+        double[] centers, scales;
+        do {
+            version = snapshot;
+            centers = getAttributesCenters();
+            scales = getAttributesScales();
+        } while (version != snapshot);
+        int width = centers.length;
+        for (int r=0, k=0; r<rows; r++){
+            for (int i=0; i<width; i++, k++){
+                ret[k] = (instances[offset + k] - centers[i]) / scales[i];
+            }
+        }
     }
 
     protected double[] getAttributesMean() {
-        return attributesMean;
+        Snapshot s = snapshot;
+        return s == null ? null : s.mean;
     }
 
     protected double[] getAttributesSTD() {
-        return attributesSTD;
+        Snapshot s = snapshot;
+        return s == null ? null : s.std;
     }
 
     protected double[] getAttributesMin() {
-        return attributesMin;
+        Snapshot s = snapshot;
+        return s == null ? null : s.min;
     }
 
     protected double[] getAttributesRange() {
-        return attributesRange;
+        Snapshot s = snapshot;
+        return s == null ? null : s.range;
+    }
+
+    /**
+     * Get a snapshot of the statistics the descriptors were computed from.
+     * <p>The snapshot is a copy: later calls to {@link #update(double[][])} do not change it.</p>
+     * @return the statistics, or null if no dataset was integrated
+     */
+    public synchronized FeatureStatistics getStatistics() {
+        return statistics == null ? null : statistics.copy();
+    }
+
+    /**
+     * Integrate new instances into the descriptors, without rescanning the instances integrated before.
+     * <p>Normalizations computed afterwards reflect all the instances seen so far. Normalizations running concurrently
+     * use either the previous or the updated descriptors.</p>
+     * @param attributes the new instances.
+     * @throws IllegalStateException if no dataset was integrated yet
+     */
+    public synchronized void update(double[][] attributes){
+        if(statistics == null){
+            throw new IllegalStateException("No dataset was integrated.");
+        }
+        if(attributes.length > 0){
+            statistics.merge(FeatureStatistics.of(attributes, 0, attributes.length));
+            describe(statistics);
+        }
     }
 
     /**
@@ -80,33 +167,95 @@ public abstract class FeatureDescriptors implements Serializable {
      * @param attributes the dataset.
      */
     private void preprocess(double[][] attributes){
-        int numAttributes = attributes[0].length;
-        attributesMean = new double[numAttributes];
-        attributesSTD = new double[numAttributes];
-        attributesMax = new double[numAttributes];
-        attributesMin = new double[numAttributes];
-        attributesRange = new double[numAttributes];
-        for (int attrIdx=0; attrIdx<numAttributes; attrIdx++){
-            attributesMean[attrIdx] = 0;
-            attributesMin[attrIdx] = Double.MAX_VALUE;
-            attributesMax[attrIdx] = Double.MIN_VALUE;
-            for(int i=0; i<attributes.length; i++){
-                attributesMean[attrIdx] += attributes[i][attrIdx];
-                attributesMin[attrIdx] = attributes[i][attrIdx] < attributesMin[attrIdx] ? attributes[i][attrIdx] : attributesMin[attrIdx];
-                attributesMax[attrIdx] = attributes[i][attrIdx] > attributesMax[attrIdx] ? attributes[i][attrIdx] : attributesMax[attrIdx];
-            }
-            attributesMean[attrIdx] /= attributes.length;
+        statistics = FeatureStatistics.of(attributes, 0, attributes.length);
+        describe(statistics);
+    }
+
+    /**
+     * Integrate a chunk of a dataset that is read in chunks, such as a dataset larger than memory.
+     * <p>Call {@link #invalidate()} before the first chunk, give every chunk to this method in turn, then call
+     * {@link #completePass()}.</p>
+     * @param attributes a chunk of the dataset.
+     * @param rows the number of rows to integrate from the chunk.
+     */
+    public void preprocess(double[][] attributes, int rows){
+        if(rows <= 0){
+            return;
         }
-        for (int attrIdx=0; attrIdx<numAttributes; attrIdx++){
-            attributesSTD[attrIdx] = 0;
-            for(int i=0; i<attributes.length; i++){
-                attributesSTD[attrIdx] += (attributes[i][attrIdx] - attributesMean[attrIdx]) * (attributes[i][attrIdx] - attributesMean[attrIdx]);
-            }
-            attributesSTD[attrIdx] = Math.sqrt(attributesSTD[attrIdx]/(attributes.length-1));
-            if(attributesSTD[attrIdx] == 0){
-                attributesSTD[attrIdx] = 1;
+        FeatureStatistics chunk = FeatureStatistics.of(attributes, 0, rows);
+        pending = pending == null ? chunk : pending.merge(chunk);
+    }
+
+    /**
+     * Finish integrating a dataset given in chunks, and derive the descriptors from all its chunks.
+     */
+    public void completePass(){
+        if(pending != null){
+            statistics = pending;
+            pending = null;
+            describe(statistics);
+        }
+    }
+
+    /**
+     * Derive the descriptors from dataset statistics.
+     * <p>The descriptors are published as one snapshot, so normalizations running concurrently see either the old or the
+     * new descriptors.</p>
+     * @param statistics the statistics of the dataset.
+     */
+    private void describe(FeatureStatistics statistics){
+        double[] std = statistics.getSTD();
+        double[] min = statistics.getMin();
+        double[] max = statistics.getMax();
+        double[] range = new double[max.length];
+        for (int attrIdx=0; attrIdx<std.length; attrIdx++){
+            if(std[attrIdx] == 0){
+                std[attrIdx] = 1;
             }
-            attributesRange[attrIdx] = Math.max(attributesMax[attrIdx] - attributesMin[attrIdx], 0.0001);
+            min[attrIdx] = Math.min(min[attrIdx], Double.MAX_VALUE);
+            max[attrIdx] = Math.max(max[attrIdx], Double.MIN_VALUE); /*the maximum has always been floored at the smallest positive double*/
+            range[attrIdx] = Math.max(max[attrIdx] - min[attrIdx], 0.0001);
+        }
+        snapshot = new Snapshot(statistics.getMean(), std, min, max, range);
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        Snapshot s = snapshot;
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("attributesMean", s == null ? null : s.mean);
+        fields.put("attributesSTD", s == null ? null : s.std);
+        fields.put("attributesMin", s == null ? null : s.min);
+        fields.put("attributesMax", s == null ? null : s.max);
+        fields.put("attributesRange", s == null ? null : s.range);
+        fields.put("statistics", statistics);
+        out.writeFields();
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        double[] mean = (double[]) fields.get("attributesMean", null);
+        double[] std = (double[]) fields.get("attributesSTD", null);
+        double[] min = (double[]) fields.get("attributesMin", null);
+        double[] max = (double[]) fields.get("attributesMax", null);
+        double[] range = (double[]) fields.get("attributesRange", null);
+        if(mean != null || std != null || min != null || max != null || range != null){
+            snapshot = new Snapshot(mean, std, min, max, range);
+        }
+        statistics = (FeatureStatistics) fields.get("statistics", null);
+    }
+
+    /**
+     * The descriptors derived from one version of the statistics.
+     */
+    private static final class Snapshot {
+        final double[] mean, std, min, max, range;
+
+        Snapshot(double[] mean, double[] std, double[] min, double[] max, double[] range){
+            this.mean = mean;
+            this.std = std;
+            this.min = min;
+            this.max = max;
+            this.range = range;
         }
     }
 }
@@ -0,0 +1,182 @@
+package learners.core.normalization;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Running per-attribute count, mean, variance, minimum and maximum of a dataset.
+ * <p>Rows are integrated in a single pass with Welford's update, and statistics computed over separate parts of a
+ * dataset, e.g. on separate threads, can be merged exactly. Statistics can thus be extended with new rows at any time
+ * without rescanning the rows already seen.</p>
+ */
+public class FeatureStatistics implements Serializable {
+    private static final long serialVersionUID = -7020139442519716236L;
+    private static final int PARALLEL_BLOCK = 4096; /*rows per fork-join leaf*/
+
+    private long count;
+    private final double[] mean, m2, min, max; /*m2: sum of squared deviations from the mean*/
+
+    /**
+     * Create empty statistics.
+     * @param numAttributes the number of attributes per row
+     */
+    public FeatureStatistics(int numAttributes){
+        mean = new double[numAttributes];
+        m2 = new double[numAttributes];
+        min = new double[numAttributes];
+        max = new double[numAttributes];
+        Arrays.fill(min, Double.POSITIVE_INFINITY);
+        Arrays.fill(max, Double.NEGATIVE_INFINITY);
+    }
+
+    /**
+     * Compute the statistics of a dataset, splitting large datasets across the common fork-join pool.
+     * @param attributes the rows
+     * @param from the first row
+     * @param to the row after the last row
+     * @return the statistics of the rows
+     */
+    public static FeatureStatistics of(double[][] attributes, int from, int to){
+        int numAttributes = to > from ? attributes[from].length : 0;
+        if(to - from <= PARALLEL_BLOCK){
+            return new FeatureStatistics(numAttributes).add(attributes, from, to);
+        }
+        return ForkJoinPool.commonPool().invoke(new StatisticsTask(attributes, from, to, numAttributes));
+    }
+
+    /**
+     * Integrate one row.
+     * @param row the row
+     * @return these statistics
+     */
+    public FeatureStatistics add(double[] row){
+        count++;
+        for(int j=0; j<mean.length; j++){
+            double x = row[j];
+            double delta = x - mean[j];
+            mean[j] += delta / count;
+            m2[j] += delta * (x - mean[j]);
+            if(x < min[j]){
+                min[j] = x;
+            }
+            if(x > max[j]){
+                max[j] = x;
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Integrate a range of rows.
+     * @param attributes the rows
+     * @param from the first row
+     * @param to the row after the last row
+     * @return these statistics
+     */
+    public FeatureStatistics add(double[][] attributes, int from, int to){
+        for(int i=from; i<to; i++){
+            add(attributes[i]);
+        }
+        return this;
+    }
+
+    /**
+     * Integrate the statistics of other rows, as if the rows were added to these statistics.
+     * @param other statistics over the same attributes
+     * @return these statistics
+     */
+    public FeatureStatistics merge(FeatureStatistics other){
+        if(other.count == 0){
+            return this;
+        }
+        if(other.mean.length != mean.length){
+            throw new IllegalArgumentException("Cannot merge statistics of " + other.mean.length + " attributes into " + mean.length + ".");
+        }
+        long n = count + other.count;
+        for(int j=0; j<mean.length; j++){
+            double delta = other.mean[j] - mean[j];
+            mean[j] += delta * other.count / n;
+            m2[j] += other.m2[j] + delta * delta * ((double)count * other.count / n);
+            min[j] = Math.min(min[j], other.min[j]);
+            max[j] = Math.max(max[j], other.max[j]);
+        }
+        count = n;
+        return this;
+    }
+
+    /**
+     * Copy these statistics, so that rows added to either one do not change the other.
+     * @return the copy
+     */
+    public FeatureStatistics copy(){
+        FeatureStatistics ret = new FeatureStatistics(mean.length);
+        ret.count = count;
+        System.arraycopy(mean, 0, ret.mean, 0, mean.length);
+        System.arraycopy(m2, 0, ret.m2, 0, m2.length);
+        System.arraycopy(min, 0, ret.min, 0, min.length);
+        System.arraycopy(max, 0, ret.max, 0, max.length);
+        return ret;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public int getNumAttributes() {
+        return mean.length;
+    }
+
+    public double[] getMean() {
+        return mean.clone();
+    }
+
+    /**
+     * Get the sample standard deviation of each attribute.
+     * @return the standard deviations; NaN with fewer than two rows
+     */
+    public double[] getSTD() {
+        double[] ret = new double[m2.length];
+        for(int j=0; j<ret.length; j++){
+            ret[j] = Math.sqrt(m2[j] / (count - 1));
+        }
+        return ret;
+    }
+
+    public double[] getMin() {
+        return min.clone();
+    }
+
+    public double[] getMax() {
+        return max.clone();
+    }
+
+    /**
+     * Computes the statistics of halves of a range of rows in parallel, then merges them.
+     */
+    private static final class StatisticsTask extends RecursiveTask<FeatureStatistics> {
+        private static final long serialVersionUID = -7887752966530080886L;
+        private final double[][] attributes;
+        private final int from, to, numAttributes;
+
+        StatisticsTask(double[][] attributes, int from, int to, int numAttributes) {
+            this.attributes = attributes;
+            this.from = from;
+            this.to = to;
+            this.numAttributes = numAttributes;
+        }
+
+        @Override
+        protected FeatureStatistics compute() {
+            if(to - from <= PARALLEL_BLOCK){
+                return new FeatureStatistics(numAttributes).add(attributes, from, to);
+            }
+            int mid = (from + to) >>> 1;
+            StatisticsTask right = new StatisticsTask(attributes, mid, to, numAttributes);
+            right.fork();
+            FeatureStatistics left = new StatisticsTask(attributes, from, mid, numAttributes).compute();
+            return left.merge(right.join());
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package learners.core.normalization;
+
+/**
+ * A normalization with given centers and scales, such as the normalization of a network loaded from a binary model
+ * file.
+ * <p>The descriptors are not derived from a dataset, so they keep no statistics and cannot be updated.</p>
+ */
+public class FixedDescriptors extends FeatureDescriptors {
+    private static final long serialVersionUID = 2148663471085260919L;
+    private final double[] centers, scales;
+
+    /**
+     * Construct a normalization.
+     * @param centers the value subtracted from each attribute
+     * @param scales the value each centered attribute is divided by
+     */
+    public FixedDescriptors(double[] centers, double[] scales) {
+        this.centers = centers;
+        this.scales = scales;
+    }
+
+    @Override
+    public double[] getAttributesCenters() {
+        return centers;
+    }
+
+    @Override
+    public double[] getAttributesScales() {
+        return scales;
+    }
+
+    @Override
+    public void invalidate() {
+
+    }
+}
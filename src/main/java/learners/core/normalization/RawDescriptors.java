@@ -4,28 +4,30 @@ package learners.core.normalization;
  *
  */
 public class RawDescriptors extends FeatureDescriptors {
-    private double[] centers, scales;
+    private static final long serialVersionUID = -5668312455655539076L;
+    private volatile double[] centers, scales; /*published only once filled, as concurrent classifiers may initialize them*/
 
     @Override
     public double[] getAttributesCenters() {
-        if(centers == null){
-            centers = new double[getAttributesRange().length];
-            for(int i=0; i<centers.length; i++){
-                centers[i] = 0;
-            }
+        double[] ret = centers;
+        if(ret == null){
+            ret = new double[getAttributesRange().length];
+            centers = ret;
         }
-        return centers;
+        return ret;
     }
 
     @Override
     public double[] getAttributesScales() {
-        if(scales == null){
-            scales = new double[getAttributesRange().length];
-            for(int i=0; i<centers.length; i++){
-                scales[i] = 1;
+        double[] ret = scales;
+        if(ret == null){
+            ret = new double[getAttributesRange().length];
+            for(int i=0; i<ret.length; i++){
+                ret[i] = 1;
             }
+            scales = ret;
         }
-        return scales;
+        return ret;
     }
 
     @Override
@@ -0,0 +1,58 @@
+package learners.perceptrons;
+
+/**
+ * Scratch buffers for pushing a mini-batch through a stack of layers.
+ * <p>All blocks are row-major, so a batch of rows is multiplied against each layer as one matrix.</p>
+ */
+final class BatchBuffers {
+    private final int capacity;
+    final double[] inputs; /*the packed input rows*/
+    final double[] targets; /*the packed target rows*/
+    final double[][] activations; /*per layer: the layer's outputs for every row*/
+    final double[][] deltas; /*per layer: the deltas for every row*/
+    final double[][] gradWeights, gradBiases; /*per layer: the gradients summed over the batch*/
+
+    /**
+     * Allocate buffers for a network.
+     *
+     * @param layers the network's layers
+     * @param capacity the maximum number of rows in a batch
+     */
+    BatchBuffers(Perceptron[] layers, int capacity) {
+        this.capacity = capacity;
+        inputs = new double[capacity * layers[0].numInputNodes()];
+        targets = new double[capacity * layers[layers.length-1].numOutputNodes()];
+        activations = new double[layers.length][];
+        deltas = new double[layers.length][];
+        gradWeights = new double[layers.length][];
+        gradBiases = new double[layers.length][];
+        for(int i=0; i<layers.length; ++i){
+            activations[i] = new double[capacity * layers[i].numOutputNodes()];
+            deltas[i] = new double[capacity * layers[i].numOutputNodes()];
+            gradWeights[i] = new double[layers[i].numInputNodes() * layers[i].numOutputNodes()];
+            gradBiases[i] = new double[layers[i].numOutputNodes()];
+        }
+    }
+
+    int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Copy a range of rows into the packed input and target blocks.
+     *
+     * @param inputRows the input vectors
+     * @param targetRows the target vectors
+     * @param from the first row to copy
+     * @param rows the number of rows to copy
+     */
+    void pack(double[][] inputRows, double[][] targetRows, int from, int rows) {
+        for(int r=0, x=0, t=0; r<rows; ++r){
+            double[] in = inputRows[from + r], target = targetRows[from + r];
+            System.arraycopy(in, 0, inputs, x, in.length);
+            System.arraycopy(target, 0, targets, t, target.length);
+            x += in.length;
+            t += target.length;
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package learners.perceptrons;
+
+import learners.core.eval.Dataset;
+import learners.core.normalization.FeatureDescriptors;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Prepares the training blocks of every epoch on a background thread.
+ * <p>The producer shuffles the rows of each epoch, normalizes them and packs them into a small pool of reusable blocks,
+ * which it hands to the training thread through a bounded queue. Normalization thus overlaps training, and only the
+ * blocks in flight hold normalized rows.</p>
+ */
+final class BatchPipeline implements Closeable {
+    private static final Block END = new Block(0); /*marks the end of the last epoch*/
+
+    private final BlockingQueue<Block> ready, free;
+    private final Thread producer;
+    private volatile Throwable failure;
+
+    /**
+     * Start preparing blocks.
+     * @param source the rows of every epoch
+     * @param numEpochs the number of epochs
+     * @param blockRows the number of rows per block
+     * @param depth the number of blocks prepared ahead of training
+     */
+    BatchPipeline(final Source source, final int numEpochs, int blockRows, int depth) {
+        int poolSize = Math.max(1, depth) + 1;
+        ready = new ArrayBlockingQueue<>(poolSize + 1);
+        free = new ArrayBlockingQueue<>(poolSize);
+        for(int i=0; i<poolSize; i++){
+            free.add(new Block(blockRows));
+        }
+        producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for(int i=0; i<numEpochs; i++){
+                        source.startEpoch();
+                        while(true){
+                            Block block = free.take();
+                            block.rows = source.fill(block);
+                            if(block.rows == 0){
+                                free.add(block);
+                                break;
+                            }
+                            ready.put(block);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                } catch (Throwable e) {
+                    failure = e;
+                }
+                ready.add(END);
+            }
+        }, "batch-pipeline");
+        producer.setDaemon(true);
+        producer.start();
+    }
+
+    /**
+     * Wait for the next prepared block.
+     * <p>Every block must be given back through {@link #recycle(Block)} once trained on.</p>
+     * @return the next block, or null after the last epoch
+     * @throws IOException if the source failed to read its rows
+     */
+    Block take() throws IOException {
+        Block block;
+        try {
+            block = ready.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for training rows.");
+        }
+        if(block != END){
+            return block;
+        }
+        ready.add(END);
+        Throwable e = failure;
+        if(e instanceof IOException){
+            throw (IOException) e;
+        }
+        if(e instanceof RuntimeException){
+            throw (RuntimeException) e;
+        }
+        if(e instanceof Error){
+            throw (Error) e;
+        }
+        return null;
+    }
+
+    /**
+     * Give a trained block back to the producer.
+     * @param block a block returned by {@link #take()}
+     */
+    void recycle(Block block) {
+        free.add(block);
+    }
+
+    /**
+     * Stop the producer, e.g. when training fails before the last epoch.
+     */
+    @Override
+    public void close() {
+        producer.interrupt();
+    }
+
+    /**
+     * A reusable block of normalized rows.
+     */
+    static final class Block {
+        final double[][] inputs, targets;
+        double[][] raw; /*the raw rows read from a dataset, allocated on first use*/
+        int rows;
+
+        Block(int capacity) {
+            inputs = new double[capacity][];
+            targets = new double[capacity][];
+        }
+
+        /**
+         * Get the normalized rows of the block.
+         * @return the input vectors, trimmed to the rows of the block
+         */
+        double[][] inputs() {
+            return rows == inputs.length ? inputs : Arrays.copyOf(inputs, rows);
+        }
+
+        /**
+         * Get the targets of the block.
+         * @return the target vectors, trimmed to the rows of the block
+         */
+        double[][] targets() {
+            return rows == targets.length ? targets : Arrays.copyOf(targets, rows);
+        }
+
+        /**
+         * Normalize a row into the block, reusing the row's previous buffer when it has the right length.
+         */
+        void normalize(FeatureDescriptors descriptors, double[] row, int r) {
+            if(inputs[r] == null || inputs[r].length != row.length){
+                inputs[r] = new double[row.length];
+            }
+            descriptors.regulariseInstance(row, inputs[r]);
+        }
+    }
+
+    /**
+     * The rows of every epoch, read by the producer thread.
+     */
+    static abstract class Source {
+        final FeatureDescriptors descriptors;
+        final Random random; /*the shuffling order, or null to keep the rows in order*/
+
+        Source(FeatureDescriptors descriptors, Random random) {
+            this.descriptors = descriptors;
+            this.random = random;
+        }
+
+        /**
+         * Go back to the first row.
+         * @throws IOException
+         */
+        abstract void startEpoch() throws IOException;
+
+        /**
+         * Normalize the next rows of the epoch into a block.
+         * @param block the block
+         * @return the number of rows filled, 0 at the end of the epoch
+         * @throws IOException
+         */
+        abstract int fill(Block block) throws IOException;
+    }
+
+    /**
+     * The rows of an in-memory dataset, shuffled as a whole every epoch.
+     */
+    static final class ArraySource extends Source {
+        private final double[][] inputs, targets;
+        private final int[] order;
+        private int cursor;
+
+        ArraySource(double[][] inputs, double[][] targets, FeatureDescriptors descriptors, Random random) {
+            super(descriptors, random);
+            this.inputs = inputs;
+            this.targets = targets;
+            order = new int[inputs.length];
+            for(int i=0; i<order.length; i++){
+                order[i] = i;
+            }
+        }
+
+        @Override
+        void startEpoch() {
+            if(random != null){
+                for(int i=order.length-1; i>0; i--){
+                    int j = random.nextInt(i + 1);
+                    int t = order[i];
+                    order[i] = order[j];
+                    order[j] = t;
+                }
+            }
+            cursor = 0;
+        }
+
+        @Override
+        int fill(Block block) {
+            int n = Math.min(block.inputs.length, order.length - cursor);
+            for(int r=0; r<n; r++){
+                int row = order[cursor + r];
+                block.normalize(descriptors, inputs[row], r);
+                block.targets[r] = targets[row];
+            }
+            cursor += n;
+            return n;
+        }
+    }
+
+    /**
+     * The rows of a dataset read through its cursor, shuffled within each block every epoch.
+     */
+    static final class DatasetSource extends Source {
+        private final Dataset dataset;
+
+        DatasetSource(Dataset dataset, FeatureDescriptors descriptors, Random random) {
+            super(descriptors, random);
+            this.dataset = dataset;
+        }
+
+        @Override
+        void startEpoch() throws IOException {
+            dataset.rewind();
+        }
+
+        @Override
+        int fill(Block block) throws IOException {
+            if(block.raw == null){
+                block.raw = new double[block.inputs.length][];
+            }
+            int n = dataset.next(block.raw, block.targets);
+            for(int r=0; r<n; r++){
+                block.normalize(descriptors, block.raw[r], r);
+            }
+            if(random != null){
+                for(int i=n-1; i>0; i--){
+                    int j = random.nextInt(i + 1);
+                    double[] t = block.inputs[i];
+                    block.inputs[i] = block.inputs[j];
+                    block.inputs[j] = t;
+                    t = block.targets[i];
+                    block.targets[i] = block.targets[j];
+                    block.targets[j] = t;
+                }
+            }
+            return n;
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package learners.perceptrons;
+
+/**
+ * The numeric kernels behind the layers' dot products, weight updates and activations.
+ * <p>The SIMD backend built on {@code jdk.incubator.vector} is picked at class-loading time when that module is present
+ * (run with {@code --add-modules jdk.incubator.vector}); otherwise the scalar loops are used. Setting the system
+ * property {@code learners.kernels.scalar} forces the scalar backend. Both backends agree within floating-point
+ * tolerance; only the scalar one reproduces the exact summation order of earlier releases.</p>
+ */
+abstract class Kernels {
+    private static final Kernels INSTANCE = load();
+
+    /**
+     * Get the kernels selected for this JVM.
+     * @return the active backend
+     */
+    static Kernels get() {
+        return INSTANCE;
+    }
+
+    private static Kernels load() {
+        if(!Boolean.getBoolean("learners.kernels.scalar") && ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()){
+            try {
+                return (Kernels) Class.forName("learners.perceptrons.VectorKernels").getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                return new ScalarKernels();
+            }
+        }
+        return new ScalarKernels();
+    }
+
+    /**
+     * Get the backend's name, for diagnostics.
+     * @return the backend's name
+     */
+    abstract String name();
+
+    /**
+     * Compute {@code sum(x[xOff+j] * y[yOff+j])} for j in [0, len).
+     */
+    abstract double dot(double[] x, int xOff, double[] y, int yOff, int len);
+
+    /**
+     * Compute four dot products sharing one vector: {@code sums[k] = sum(x[xOff+k*stride+j] * w[wOff+j])}.
+     */
+    abstract void dot4(double[] w, int wOff, double[] x, int xOff, int stride, int len, double[] sums);
+
+    /**
+     * Compute {@code y[yOff+j] += alpha * x[xOff+j]} for j in [0, len).
+     */
+    abstract void axpy(double alpha, double[] x, int xOff, double[] y, int yOff, int len);
+
+    /**
+     * Add one vector to four rows: {@code y[yOff+k*stride+j] += ak * x[xOff+j]}.
+     */
+    abstract void axpy4(double a0, double a1, double a2, double a3, double[] x, int xOff, double[] y, int yOff, int stride, int len);
+
+    /**
+     * Add four scaled rows to one vector: {@code y[yOff+j] += sum(ak * x[xOff+k*stride+j])}.
+     */
+    abstract void gaxpy4(double a0, double a1, double a2, double a3, double[] x, int xOff, int stride, double[] y, int yOff, int len);
+
+    /**
+     * Apply the logistic sigmoid to a block of values.
+     */
+    abstract void sigmoid(double[] src, double[] dst, int len);
+
+    /**
+     * Apply tanh to a block of values.
+     */
+    abstract void tanh(double[] src, double[] dst, int len);
+
+    /**
+     * Apply max(0, x) to a block of values.
+     */
+    abstract void relu(double[] src, double[] dst, int len);
+
+    /**
+     * The portable backend: plain loops over doubles.
+     */
+    static final class ScalarKernels extends Kernels {
+        @Override
+        String name() {
+            return "scalar";
+        }
+
+        @Override
+        double dot(double[] x, int xOff, double[] y, int yOff, int len) {
+            double s = 0.0;
+            for(int j=0; j<len; ++j){
+                s += x[xOff + j] * y[yOff + j];
+            }
+            return s;
+        }
+
+        @Override
+        void dot4(double[] w, int wOff, double[] x, int xOff, int stride, int len, double[] sums) {
+            int x0 = xOff, x1 = x0 + stride, x2 = x1 + stride, x3 = x2 + stride;
+            double s0 = 0.0, s1 = 0.0, s2 = 0.0, s3 = 0.0;
+            for(int j=0; j<len; ++j){
+                double v = w[wOff + j];
+                s0 += x[x0 + j] * v;
+                s1 += x[x1 + j] * v;
+                s2 += x[x2 + j] * v;
+                s3 += x[x3 + j] * v;
+            }
+            sums[0] = s0;
+            sums[1] = s1;
+            sums[2] = s2;
+            sums[3] = s3;
+        }
+
+        @Override
+        void axpy(double alpha, double[] x, int xOff, double[] y, int yOff, int len) {
+            for(int j=0; j<len; ++j){
+                y[yOff + j] += alpha * x[xOff + j];
+            }
+        }
+
+        @Override
+        void axpy4(double a0, double a1, double a2, double a3, double[] x, int xOff, double[] y, int yOff, int stride, int len) {
+            int y0 = yOff, y1 = y0 + stride, y2 = y1 + stride, y3 = y2 + stride;
+            for(int j=0; j<len; ++j){
+                double v = x[xOff + j];
+                y[y0 + j] += a0 * v;
+                y[y1 + j] += a1 * v;
+                y[y2 + j] += a2 * v;
+                y[y3 + j] += a3 * v;
+            }
+        }
+
+        @Override
+        void gaxpy4(double a0, double a1, double a2, double a3, double[] x, int xOff, int stride, double[] y, int yOff, int len) {
+            int x0 = xOff, x1 = x0 + stride, x2 = x1 + stride, x3 = x2 + stride;
+            for(int j=0; j<len; ++j){
+                y[yOff + j] += a0 * x[x0 + j] + a1 * x[x1 + j] + a2 * x[x2 + j] + a3 * x[x3 + j];
+            }
+        }
+
+        @Override
+        void sigmoid(double[] src, double[] dst, int len) {
+            for(int i=0; i<len; i++){
+                dst[i] = 1.0 / (1.0 + Math.exp(-src[i]));
+            }
+        }
+
+        @Override
+        void tanh(double[] src, double[] dst, int len) {
+            for(int i=0; i<len; i++){
+                dst[i] = Math.tanh(src[i]);
+            }
+        }
+
+        @Override
+        void relu(double[] src, double[] dst, int len) {
+            for(int i=0; i<len; i++){
+                dst[i] = src[i] > 0 ? src[i] : 0;
+            }
+        }
+    }
+}
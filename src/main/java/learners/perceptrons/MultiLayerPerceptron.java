@@ -1,9 +1,14 @@
 package learners.perceptrons;
 
+import learners.core.normalization.FeatureDescriptors;
+
 import java.io.Serializable;
 
 public class MultiLayerPerceptron extends NeuralNetwork implements Serializable {
+    private static final long serialVersionUID = 6337842579487330587L;
     private Perceptron[] layers;
+    private transient BatchBuffers batchBuffers;
+    private transient ParallelTrainer runTrainer; /*the workers of a chunked training run, see beginTrainingRun*/
 
 
     /**
@@ -21,6 +26,49 @@ public class MultiLayerPerceptron extends NeuralNetwork implements Serializable
         layers[layers.length-1].setActivationFunction(ActivationFunction.SIGMOID);
     }
 
+    MultiLayerPerceptron(Perceptron[] layers) {
+        this.layers = layers;
+    }
+
+    Perceptron[] layers() {
+        return layers;
+    }
+
+    /**
+     * Get the heap footprint of the network's weights.
+     * @return the number of bytes
+     */
+    public long weightBytes() {
+        long bytes = 0;
+        for(Perceptron layer : layers){
+            bytes += (layer.weightBlock().length + layer.biases().length) * 8L;
+        }
+        return bytes;
+    }
+
+    /**
+     * Build an inference-only copy of this network that takes raw instances.
+     * <p>The input normalization is folded into the first layer's weights and biases, so processing an instance makes
+     * no separate normalization pass. The copy is frozen and this network is left unchanged.</p>
+     * @return the optimized network
+     */
+    public MultiLayerPerceptron optimizeForInference() {
+        Perceptron[] copies = new Perceptron[layers.length];
+        if(isNormalizationFolded()){
+            copies[0] = layers[0].copy();
+        }else{
+            FeatureDescriptors descriptors = getFeatureDescriptors();
+            copies[0] = layers[0].foldInput(descriptors.getAttributesCenters(), descriptors.getAttributesScales());
+        }
+        for(int i=1; i<layers.length; ++i){
+            copies[i] = layers[i].copy();
+        }
+        MultiLayerPerceptron ret = new MultiLayerPerceptron(copies);
+        ret.inheritPreprocessing(this);
+        ret.foldNormalization();
+        ret.freeze();
+        return ret;
+    }
 
     /**
      * @See {link {{@link NeuralNetwork#compute(double[])}}}
@@ -39,6 +87,67 @@ public class MultiLayerPerceptron extends NeuralNetwork implements Serializable
         return result;
     }
 
+    /**
+     * @See {link {{@link NeuralNetwork#compute(double[], double[], Workspace)}}}
+     * <p>
+     *     Propagate the instance through the layers using the workspace for hidden activations; no layer state is written.
+     * </p>
+     * @param inputs the normalized instance
+     * @param outputs the buffer receiving the output layer's activations
+     * @param workspace scratch space from {@link #newWorkspace()}
+     */
+    @Override
+    protected void compute(double[] inputs, double[] outputs, Workspace workspace) {
+        double[] layerInput = inputs;
+        for(int i=0; i<layers.length - 1; ++i){
+            layers[i].compute(layerInput, workspace.activations(i), workspace);
+            layerInput = workspace.activations(i);
+        }
+        layers[layers.length - 1].compute(layerInput, outputs, workspace);
+    }
+
+    /**
+     * @See {link {{@link NeuralNetwork#computeBatch(double[], double[], int)}}}
+     * <p>
+     *     Push the whole block through each layer as one matrix product, alternating between two scratch blocks.
+     * </p>
+     */
+    @Override
+    protected void computeBatch(double[] inputs, double[] outputs, int rows) {
+        int width = 0;
+        for(int i=0; i<layers.length - 1; ++i){
+            width = Math.max(width, layers[i].numOutputNodes());
+        }
+        double[] current = new double[rows * width], next = new double[rows * width];
+        double[] layerInput = inputs;
+        for(int i=0; i<layers.length - 1; ++i){
+            layers[i].computeBatch(layerInput, current, rows);
+            layerInput = current;
+            current = next;
+            next = layerInput;
+        }
+        layers[layers.length - 1].computeBatch(layerInput, outputs, rows);
+    }
+
+    @Override
+    public int numInputNodes() {
+        return layers[0].numInputNodes();
+    }
+
+    @Override
+    public int numOutputNodes() {
+        return layers[layers.length - 1].numOutputNodes();
+    }
+
+    @Override
+    public Workspace newWorkspace() {
+        int[] widths = new int[layers.length - 1];
+        for(int i=0; i<widths.length; ++i){
+            widths[i] = layers[i].numOutputNodes();
+        }
+        return new Workspace(numInputNodes(), widths, numOutputNodes());
+    }
+
     /**
      * Propagate the current weight deltas back to previous layers.
      *
@@ -69,6 +178,7 @@ public class MultiLayerPerceptron extends NeuralNetwork implements Serializable
      */
     @Override
     public void train(double[] inputs, double[] targets, double rate) {
+        checkTrainable();
         double[] curLayerInput = inputs;
         for(int i=0; i<layers.length - 1; ++i){
             curLayerInput = layers[i].compute(curLayerInput);
@@ -77,6 +187,117 @@ public class MultiLayerPerceptron extends NeuralNetwork implements Serializable
         backpropagate(rate);
     }
 
+    /**
+     * @see {link {{@link NeuralNetwork#trainBatch(double[][], double[][], int, int, double)}}}
+     *<p>
+     *     Push the whole batch through each layer as one matrix product, back-propagate the deltas for every row
+     *     against the current weights, then apply the averaged gradient to all layers at once.
+     *</p>
+     * @param inputs the input feature vectors
+     * @param targets target values corresponding to the inputs
+     * @param from the first row of the batch
+     * @param to the row after the last row of the batch
+     * @param rate the current learning rate
+     */
+    @Override
+    public void trainBatch(double[][] inputs, double[][] targets, int from, int to, double rate) {
+        checkTrainable();
+        int rows = to - from;
+        if(batchBuffers == null || batchBuffers.capacity() < rows){
+            batchBuffers = new BatchBuffers(layers, rows);
+        }
+        batchBuffers.pack(inputs, targets, from, rows);
+        computeGradients(batchBuffers, rows);
+        for(int i=0; i<layers.length; ++i){
+            layers[i].applyGradient(batchBuffers.gradWeights[i], batchBuffers.gradBiases[i], rate / rows);
+        }
+    }
+
+    /**
+     * @see {link {{@link NeuralNetwork#trainEpochs(double[][], double[][], int, double, TrainingOptions)}}}
+     *<p>
+     *     With a parallelism above one, each epoch is sharded across worker threads. In {@link ParallelMode#SYNCHRONOUS}
+     *     mode the batch size is raised to at least one row per worker.
+     *</p>
+     */
+    @Override
+    protected void trainEpochs(double[][] attributes, double[][] targets, int numEpochs, double learningRate, TrainingOptions options) {
+        int parallelism = options.getParallelism();
+        if(parallelism <= 1){
+            super.trainEpochs(attributes, targets, numEpochs, learningRate, options);
+            return;
+        }
+        boolean hogwild = options.getParallelMode() == ParallelMode.HOGWILD;
+        int batchSize = hogwild ? Math.max(1, options.getBatchSize()) : Math.max(parallelism, options.getBatchSize());
+        ParallelTrainer trainer = runTrainer;
+        boolean owned = trainer == null;
+        if(owned){
+            trainer = newTrainer(options);
+        }
+        try {
+            for(int i=0; i<numEpochs; ++i){
+                if(hogwild){
+                    trainer.hogwildEpoch(attributes, targets, batchSize, learningRate);
+                }else{
+                    trainer.synchronousEpoch(attributes, targets, batchSize, learningRate);
+                }
+            }
+        } finally {
+            if(owned){
+                trainer.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Start the workers once for the whole run, rather than once per chunk.
+     */
+    @Override
+    protected void beginTrainingRun(TrainingOptions options) {
+        if(options.getParallelism() > 1){
+            runTrainer = newTrainer(options);
+        }
+    }
+
+    @Override
+    protected void endTrainingRun() {
+        if(runTrainer != null){
+            runTrainer.shutdown();
+            runTrainer = null;
+        }
+    }
+
+    private ParallelTrainer newTrainer(TrainingOptions options) {
+        int parallelism = options.getParallelism();
+        boolean hogwild = options.getParallelMode() == ParallelMode.HOGWILD;
+        int batchSize = hogwild ? Math.max(1, options.getBatchSize()) : Math.max(parallelism, options.getBatchSize());
+        int shardCapacity = hogwild ? batchSize : (batchSize + parallelism - 1) / parallelism;
+        return new ParallelTrainer(this, layers, parallelism, shardCapacity);
+    }
+
+    /**
+     * Run the forward and backward passes for a packed batch, leaving the summed gradients in the buffers.
+     *
+     * @param buffers the packed batch
+     * @param rows the number of rows in the batch
+     */
+    void computeGradients(BatchBuffers buffers, int rows) {
+        double[] layerInput = buffers.inputs;
+        for(int i=0; i<layers.length; ++i){
+            layers[i].computeBatch(layerInput, buffers.activations[i], rows);
+            layerInput = buffers.activations[i];
+        }
+        int last = layers.length - 1;
+        layers[last].outputDeltas(buffers.activations[last], buffers.targets, buffers.deltas[last], rows);
+        for(int i=last; i>=0; --i){
+            if(i > 0){
+                layers[i].backpropagateBatch(buffers.deltas[i], buffers.deltas[i-1], rows);
+                layers[i-1].hiddenDeltas(buffers.activations[i-1], buffers.deltas[i-1], rows);
+            }
+            layers[i].gradient(i > 0 ? buffers.activations[i-1] : buffers.inputs, buffers.deltas[i], rows, buffers.gradWeights[i], buffers.gradBiases[i]);
+        }
+    }
+
     public void printErrors(){
         layers[layers.length-1].printErrors();
     }
@@ -0,0 +1,145 @@
+package learners.perceptrons;
+
+import learners.core.normalization.FeatureDescriptors;
+import learners.core.normalization.FixedDescriptors;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * The network section of a binary model file, see {@link learners.api.ModelFile}.
+ * <p>The section starts on a multiple of 8 bytes and is little-endian throughout:</p>
+ * <pre>
+ * int      numLayers, output map (0 RAW, 1 SCALED), flags (1: normalization folded into the weights), 0
+ * int      per layer: numInputs, numOutputs, activation (declaration order of the built-in functions), 0
+ * double   normalization centers, then scales (numInputs of the first layer each)
+ * double   per layer: threshold input, weights (numOutputs rows of numInputs), biases (numOutputs)
+ * </pre>
+ */
+public final class NetworkFormat {
+    private static final ActivationFunction[] ACTIVATIONS = {
+            ActivationFunction.SIGMOID, ActivationFunction.TANH, ActivationFunction.SOFTPLUS, ActivationFunction.GAUSSIAN,
+            ActivationFunction.RELU, ActivationFunction.FAST_SIGMOID, ActivationFunction.FAST_TANH
+    };
+    private static final int FOLDED = 1;
+    private static final int WRITE_BLOCK = 8192; /*doubles converted at once*/
+
+    private NetworkFormat(){}
+
+    /**
+     * Write a network.
+     * @param network a trained multilayer perceptron
+     * @param channel the destination, at a multiple of 8 bytes
+     * @throws IOException
+     * @throws IllegalArgumentException if the network is not a multilayer perceptron, or uses an activation function
+     * that is not built in
+     */
+    public static void write(NeuralNetwork network, WritableByteChannel channel) throws IOException {
+        if(!(network instanceof MultiLayerPerceptron)){
+            throw new IllegalArgumentException("Only multilayer perceptrons can be saved in the binary format.");
+        }
+        Perceptron[] layers = ((MultiLayerPerceptron) network).layers();
+        ByteBuffer header = ByteBuffer.allocate(16 * (layers.length + 1)).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(layers.length).putInt(network.outputMap() == NeuralNetwork.OutputMap.SCALED ? 1 : 0)
+                .putInt(network.isNormalizationFolded() ? FOLDED : 0).putInt(0);
+        for(Perceptron layer : layers){
+            header.putInt(layer.numInputNodes()).putInt(layer.numOutputNodes()).putInt(activationCode(layer.activationFunction())).putInt(0);
+        }
+        header.flip();
+        writeFully(channel, header);
+        FeatureDescriptors descriptors = network.getFeatureDescriptors();
+        ByteBuffer block = ByteBuffer.allocate(WRITE_BLOCK * 8).order(ByteOrder.LITTLE_ENDIAN);
+        writeDoubles(channel, block, descriptors.getAttributesCenters());
+        writeDoubles(channel, block, descriptors.getAttributesScales());
+        for(Perceptron layer : layers){
+            writeDoubles(channel, block, new double[]{layer.thresholdInput()});
+            writeDoubles(channel, block, layer.weightBlock());
+            writeDoubles(channel, block, layer.biases());
+        }
+    }
+
+    /**
+     * Read a network with bulk copies out of a buffer, such as a mapped file.
+     * @param buffer a little-endian buffer at the start of the section, at a multiple of 8 bytes
+     * @return the network, frozen
+     * @throws IOException if the section is malformed
+     */
+    public static MultiLayerPerceptron read(ByteBuffer buffer) throws IOException {
+        try {
+            int numLayers = buffer.getInt();
+            NeuralNetwork.OutputMap outputMap = buffer.getInt() == 1 ? NeuralNetwork.OutputMap.SCALED : NeuralNetwork.OutputMap.RAW;
+            boolean folded = (buffer.getInt() & FOLDED) != 0;
+            buffer.getInt();
+            if(numLayers <= 0){
+                throw new IOException("Malformatted model file: no layers.");
+            }
+            int[] numInputs = new int[numLayers], numOutputs = new int[numLayers];
+            ActivationFunction[] activations = new ActivationFunction[numLayers];
+            for(int i=0; i<numLayers; i++){
+                numInputs[i] = buffer.getInt();
+                numOutputs[i] = buffer.getInt();
+                int code = buffer.getInt();
+                buffer.getInt();
+                if(code < 0 || code >= ACTIVATIONS.length){
+                    throw new IOException("Malformatted model file: unknown activation function " + code + ".");
+                }
+                if(numInputs[i] <= 0 || numOutputs[i] <= 0 || (i > 0 && numInputs[i] != numOutputs[i-1])){
+                    throw new IOException("Malformatted model file: inconsistent layer shapes.");
+                }
+                activations[i] = ACTIVATIONS[code];
+            }
+            double[] centers = readDoubles(buffer, numInputs[0]);
+            double[] scales = readDoubles(buffer, numInputs[0]);
+            Perceptron[] layers = new Perceptron[numLayers];
+            for(int i=0; i<numLayers; i++){
+                double threshold = readDoubles(buffer, 1)[0];
+                double[] weights = readDoubles(buffer, (long) numInputs[i] * numOutputs[i]);
+                double[] biases = readDoubles(buffer, numOutputs[i]);
+                layers[i] = new Perceptron("L" + i, numInputs[i], numOutputs[i], activations[i], weights, biases, threshold);
+            }
+            MultiLayerPerceptron ret = new MultiLayerPerceptron(layers);
+            ret.restorePreprocessing(new FixedDescriptors(centers, scales), outputMap, folded);
+            ret.freeze();
+            return ret;
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated model file.");
+        }
+    }
+
+    private static int activationCode(ActivationFunction activationFunction){
+        for(int i=0; i<ACTIVATIONS.length; i++){
+            if(ACTIVATIONS[i].getClass() == activationFunction.getClass()){
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Only built-in activation functions can be saved in the binary format.");
+    }
+
+    private static double[] readDoubles(ByteBuffer buffer, long count) throws IOException {
+        if(count > buffer.remaining() / 8){
+            throw new BufferUnderflowException();
+        }
+        double[] ret = new double[(int) count];
+        buffer.asDoubleBuffer().get(ret);
+        buffer.position(buffer.position() + ret.length * 8);
+        return ret;
+    }
+
+    private static void writeDoubles(WritableByteChannel channel, ByteBuffer block, double[] values) throws IOException {
+        for(int from=0; from<values.length; from+=WRITE_BLOCK){
+            block.clear();
+            block.asDoubleBuffer().put(values, from, Math.min(WRITE_BLOCK, values.length - from));
+            block.limit(Math.min(WRITE_BLOCK, values.length - from) * 8);
+            writeFully(channel, block);
+        }
+    }
+
+    private static void writeFully(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while(buffer.hasRemaining()){
+            channel.write(buffer);
+        }
+    }
+}
@@ -1,8 +1,15 @@
 package learners.perceptrons;
 
+import learners.core.eval.Dataset;
 import learners.core.normalization.*;
 
+import java.io.IOException;
 import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import static learners.perceptrons.NeuralNetwork.OutputMap.RAW;
 import static learners.perceptrons.NeuralNetwork.OutputMap.SCALED;
@@ -22,10 +29,17 @@ public abstract class NeuralNetwork implements Serializable {
         SCALED /*output class probabilities/likelihoods for the result*/,
         RAW /*output the unchanged numerical value of the result*/
     }
+    public enum ParallelMode {
+        SYNCHRONOUS /*workers split each mini-batch and their gradients are averaged into a single update; batches hold at least one row per worker*/,
+        HOGWILD /*workers train in mini-batches on their own shard of the epoch and update the shared weights without locking*/
+    }
 
     private static final long serialVersionUID = -4382934L;
+    private static final int BATCH_BLOCK = 256; /*rows per fork-join leaf when processing batches*/
     private FeatureDescriptors featureDescriptors = new RawDescriptors();
     private OutputMap outputMap = RAW;
+    private boolean frozen = false;
+    private boolean normalizationFolded = false; /*whether the input normalization is part of the weights*/
 
     /**
      * Compute the result given a normalized input vector
@@ -34,6 +48,57 @@ public abstract class NeuralNetwork implements Serializable {
      */
     abstract protected double[] compute(double[] inputs);
 
+    /**
+     * Compute the result given a normalized input vector, without touching the network's state.
+     * <p>Implementations only read their weights, keeping intermediate results in the workspace, so that concurrent calls
+     * with distinct workspaces are safe.</p>
+     *
+     * @param inputs the normalized instance
+     * @param outputs the buffer receiving the result
+     * @param workspace scratch space for intermediate activations
+     */
+    abstract protected void compute(double[] inputs, double[] outputs, Workspace workspace);
+
+    /**
+     * Compute the results for a block of normalized, row-major instances, without touching the network's state.
+     * <p>The default implementation runs each row through {@link #compute(double[], double[], Workspace)}; networks with
+     * batch kernels push the whole block through each layer at once.</p>
+     *
+     * @param inputs the row-major block of normalized instances
+     * @param outputs the row-major block receiving the results
+     * @param rows the number of rows in the block
+     */
+    protected void computeBatch(double[] inputs, double[] outputs, int rows) {
+        int n = numInputNodes(), m = numOutputNodes();
+        Workspace workspace = newWorkspace();
+        double[] in = new double[n], out = new double[m];
+        for(int r=0; r<rows; ++r){
+            System.arraycopy(inputs, r*n, in, 0, n);
+            compute(in, out, workspace);
+            System.arraycopy(out, 0, outputs, r*m, m);
+        }
+    }
+
+    /**
+     * Get the number of input nodes.
+     * @return the width of the input vectors
+     */
+    abstract public int numInputNodes();
+
+    /**
+     * Get the number of output nodes.
+     * @return the width of the result vectors
+     */
+    abstract public int numOutputNodes();
+
+    /**
+     * Allocate scratch space for {@link #process(double[], Workspace)}.
+     * @return a new workspace sized for this network
+     */
+    public Workspace newWorkspace() {
+        return new Workspace(numInputNodes(), new int[0], numOutputNodes());
+    }
+
     /**
      * Iterate with one training episode.
      *
@@ -42,14 +107,110 @@ public abstract class NeuralNetwork implements Serializable {
      * @param rate the current learning rate
      */
     abstract public void train(double[] inputs, double[] targets, double rate);
+
+    /**
+     * Iterate with one training episode over a mini-batch.
+     * <p>The default implementation trains on each row in turn; networks with batch kernels apply a single update per batch.</p>
+     *
+     * @param inputs the input feature vectors
+     * @param targets target values corresponding to the inputs
+     * @param from the first row of the batch
+     * @param to the row after the last row of the batch
+     * @param rate the current learning rate
+     */
+    public void trainBatch(double[][] inputs, double[][] targets, int from, int to, double rate){
+        checkTrainable();
+        for(int i=from; i<to; ++i){
+            train(inputs[i], targets[i], rate);
+        }
+    }
+
     abstract public void printErrors();
 
+    /**
+     * Switch the network to inference mode.
+     * <p>A frozen network rejects any further training, so its weights are immutable and it can be shared across
+     * threads through {@link #process(double[], Workspace)}.</p>
+     */
+    public void freeze() {
+        frozen = true;
+    }
+
+    /**
+     * Check whether the network was switched to inference mode.
+     * @return true if training is disabled.
+     */
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    /**
+     * Fail if the network is frozen.
+     */
+    protected final void checkTrainable() {
+        if(frozen){
+            throw new IllegalStateException("Cannot train a frozen network.");
+        }
+    }
+
+    /**
+     * Share another network's input normalization and output map, for networks derived from a trained one.
+     * @param source the trained network
+     */
+    protected final void inheritPreprocessing(NeuralNetwork source) {
+        featureDescriptors = source.featureDescriptors;
+        outputMap = source.outputMap;
+        normalizationFolded = source.normalizationFolded;
+    }
+
+    /**
+     * Restore the input normalization and output map of a saved network.
+     * @param featureDescriptors the input normalization
+     * @param outputMap the output map
+     * @param normalizationFolded whether the normalization is folded into the weights
+     */
+    final void restorePreprocessing(FeatureDescriptors featureDescriptors, OutputMap outputMap, boolean normalizationFolded) {
+        this.featureDescriptors = featureDescriptors;
+        this.outputMap = outputMap;
+        this.normalizationFolded = normalizationFolded;
+    }
+
+    final OutputMap outputMap() {
+        return outputMap;
+    }
+
+    /**
+     * Mark the input normalization as folded into the network's weights, so raw instances are computed directly.
+     */
+    protected final void foldNormalization() {
+        normalizationFolded = true;
+    }
+
+    /**
+     * Check whether the input normalization is folded into the network's weights.
+     * @return true if raw instances are computed without a normalization pass.
+     */
+    public boolean isNormalizationFolded() {
+        return normalizationFolded;
+    }
+
+    /**
+     * Get the input normalization fitted on the training dataset.
+     * @return the feature descriptors
+     */
+    protected final FeatureDescriptors getFeatureDescriptors() {
+        return featureDescriptors;
+    }
+
     /**
      * Normalize a raw feature instance.
      * @param instance the instance to preprocess
      * @return a normalized version of the instance.
      */
     protected double[] regularizeInstance(double[] instance){
+        if(normalizationFolded){
+            return instance.clone();
+        }
         return featureDescriptors.regulariseInstance(instance);
     }
 
@@ -64,43 +225,328 @@ public abstract class NeuralNetwork implements Serializable {
      * @param outputMap the shape of the output result
      */
     public void trainNetwork(double[][] inputs, double[][] targets, int numEpochs, double learningRate, FeatureDescriptionOptions attributesOptions, OutputMap outputMap) {
+        trainNetwork(inputs, targets, numEpochs, learningRate, attributesOptions, outputMap, 1);
+    }
+
+    /**
+     * Train the network in mini-batches.
+     * <p>The batch size also selects the update rule. With a batch size of 1 each row updates the layers from the
+     * output back, and the error of a hidden layer is propagated through the weights already updated and scaled by the
+     * learning rate of every layer above it. With larger batches the gradient of the batch is computed against the
+     * current weights and averaged, then every layer takes one step of the learning rate. The hidden layers thus train
+     * at different step sizes, and a learning rate tuned for one rule does not carry over to the other.</p>
+     *
+     * @param inputs the training dataset
+     * @param targets target values corresponding to input vectors in the dataset
+     * @param numEpochs number of training epochs
+     * @param learningRate the network's learning rate
+     * @param attributesOptions an optional attribute selection
+     * @param outputMap the shape of the output result
+     * @param batchSize the number of rows per weight update; 1 trains on each row in turn
+     */
+    public void trainNetwork(double[][] inputs, double[][] targets, int numEpochs, double learningRate, FeatureDescriptionOptions attributesOptions, OutputMap outputMap, int batchSize) {
+        trainNetwork(inputs, targets, numEpochs, learningRate, attributesOptions, outputMap, new TrainingOptions().setBatchSize(batchSize));
+    }
+
+    /**
+     * Train the network
+     *
+     * @param inputs the training dataset
+     * @param targets target values corresponding to input vectors in the dataset
+     * @param numEpochs number of training epochs
+     * @param learningRate the network's learning rate
+     * @param attributesOptions an optional attribute selection
+     * @param outputMap the shape of the output result
+     * @param options the batch size and parallelism of the training loop
+     */
+    public void trainNetwork(double[][] inputs, double[][] targets, int numEpochs, double learningRate, FeatureDescriptionOptions attributesOptions, OutputMap outputMap, TrainingOptions options) {
+        checkTrainable();
         this.outputMap = outputMap;
+        featureDescriptors = newFeatureDescriptors(attributesOptions);
+        if(!options.isPipelined()){
+            double[][] attributes = featureDescriptors.normalize(inputs);
+            trainEpochs(attributes, targets, numEpochs, learningRate, options);
+            return;
+        }
+        featureDescriptors.invalidate();
+        featureDescriptors.preprocess(inputs, inputs.length);
+        featureDescriptors.completePass();
+        try {
+            trainPipelined(new BatchPipeline.ArraySource(inputs, targets, featureDescriptors, shuffling(options)), numEpochs, learningRate, options);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Train the network on a dataset read in chunks.
+     * <p>Only {@link TrainingOptions#getChunkSize()} rows, rounded up to whole batches, are held at once, so the dataset
+     * may be larger than memory.
+     * The normalization is computed in a streaming pass over the dataset before training, then every epoch reads the
+     * dataset again from the start, on a background thread if {@link TrainingOptions#getPrefetch()} is set.</p>
+     *
+     * @param dataset the training dataset
+     * @param numEpochs number of training epochs
+     * @param learningRate the network's learning rate
+     * @param attributesOptions an optional attribute selection
+     * @param outputMap the shape of the output result
+     * @param options the chunk size, batch size and parallelism of the training loop
+     * @throws IOException if the dataset cannot be read or is empty
+     */
+    public void trainNetwork(Dataset dataset, int numEpochs, double learningRate, FeatureDescriptionOptions attributesOptions, OutputMap outputMap, TrainingOptions options) throws IOException {
+        checkTrainable();
+        this.outputMap = outputMap;
+        FeatureDescriptors descriptors = newFeatureDescriptors(attributesOptions);
+        int batchSize = Math.max(1, options.getBatchSize());
+        int chunkSize = (Math.max(1, options.getChunkSize()) + batchSize - 1) / batchSize * batchSize; /*whole batches only*/
+        double[][] inputs = new double[chunkSize][], targets = new double[chunkSize][];
+        descriptors.invalidate();
+        dataset.rewind();
+        long rows = 0;
+        for(int n; (n = dataset.next(inputs, targets)) > 0; rows += n){
+            descriptors.preprocess(inputs, n);
+        }
+        if(rows == 0){
+            throw new IOException("Cannot train on an empty dataset.");
+        }
+        descriptors.completePass();
+        featureDescriptors = descriptors;
+        if(options.isPipelined()){
+            trainPipelined(new BatchPipeline.DatasetSource(dataset, descriptors, shuffling(options)), numEpochs, learningRate, options);
+            return;
+        }
+        double[][] attributes = new double[chunkSize][];
+        beginTrainingRun(options);
+        try {
+            for (int i = 0; i < numEpochs; ++i) {
+                dataset.rewind();
+                for(int n; (n = dataset.next(inputs, targets)) > 0; ){
+                    for(int j=0; j<n; j++){
+                        if(attributes[j] == null || attributes[j].length != inputs[j].length){
+                            attributes[j] = new double[inputs[j].length];
+                        }
+                        descriptors.regulariseInstance(inputs[j], attributes[j]);
+                    }
+                    if(n < chunkSize){
+                        trainEpochs(Arrays.copyOf(attributes, n), Arrays.copyOf(targets, n), 1, learningRate, options);
+                    }else{
+                        trainEpochs(attributes, targets, 1, learningRate, options);
+                    }
+                }
+            }
+        } finally {
+            endTrainingRun();
+        }
+    }
+
+    /**
+     * Train on the blocks prepared by a background input pipeline.
+     */
+    private void trainPipelined(BatchPipeline.Source source, int numEpochs, double learningRate, TrainingOptions options) throws IOException {
+        int batchSize = Math.max(1, options.getBatchSize());
+        int blockRows = (Math.max(1, options.getChunkSize()) + batchSize - 1) / batchSize * batchSize; /*whole batches only*/
+        beginTrainingRun(options);
+        try (BatchPipeline pipeline = new BatchPipeline(source, numEpochs, blockRows, options.getPrefetch())) {
+            for(BatchPipeline.Block block; (block = pipeline.take()) != null; ){
+                trainEpochs(block.inputs(), block.targets(), 1, learningRate, options);
+                pipeline.recycle(block);
+            }
+        } finally {
+            endTrainingRun();
+        }
+    }
+
+    private static Random shuffling(TrainingOptions options){
+        return options.isShuffle() ? new Random(options.getSeed()) : null;
+    }
+
+    private static FeatureDescriptors newFeatureDescriptors(FeatureDescriptionOptions attributesOptions){
         if(attributesOptions.equals(FeatureDescriptionOptions.RESCALED)){
-            featureDescriptors = new RangeScaledDescriptors();
+            return new RangeScaledDescriptors();
         }else if(attributesOptions.equals(FeatureDescriptionOptions.NORMALIZED)){
-            featureDescriptors = new MeanNormalizedDescriptors();
+            return new MeanNormalizedDescriptors();
         }else if(attributesOptions.equals(FeatureDescriptionOptions.STANDARDIZED)){
-            featureDescriptors = new StandardizedDescriptors();
-        }else{
-            featureDescriptors = new RawDescriptors();
+            return new StandardizedDescriptors();
         }
-        double[][] attributes = featureDescriptors.normalize(inputs);
+        return new RawDescriptors();
+    }
+
+    /**
+     * Prepare for a training run that calls {@link #trainEpochs(double[][], double[][], int, double, TrainingOptions)}
+     * once per chunk or block of the dataset, so that state such as worker threads lives for the whole run.
+     * <p>The default implementation does nothing.</p>
+     *
+     * @param options the options of every call in the run
+     */
+    protected void beginTrainingRun(TrainingOptions options) {
+    }
+
+    /**
+     * Release the state set up by {@link #beginTrainingRun(TrainingOptions)}.
+     */
+    protected void endTrainingRun() {
+    }
+
+    /**
+     * Run the training loop over normalized attributes.
+     * <p>The default implementation trains on the caller's thread and ignores the parallelism setting.</p>
+     *
+     * @param attributes the normalized training dataset
+     * @param targets target values corresponding to input vectors in the dataset
+     * @param numEpochs number of training epochs
+     * @param learningRate the network's learning rate
+     * @param options the batch size and parallelism of the training loop
+     */
+    protected void trainEpochs(double[][] attributes, double[][] targets, int numEpochs, double learningRate, TrainingOptions options) {
+        int batchSize = options.getBatchSize();
         for (int i = 0; i < numEpochs; ++i) {
-            for (int j = 0; j < attributes.length; ++j) {
-                train(attributes[j], targets[j], learningRate);
+            if (batchSize <= 1) {
+                for (int j = 0; j < attributes.length; ++j) {
+                    train(attributes[j], targets[j], learningRate);
+                }
+            } else {
+                for (int j = 0; j < attributes.length; j += batchSize) {
+                    trainBatch(attributes, targets, j, Math.min(j + batchSize, attributes.length), learningRate);
+                }
             }
         }
     }
 
     /**
      * Compute the result given an input vector.
+     * <p>This allocates a fresh workspace per call and is safe to call concurrently.</p>
      *
      * @param inputs the input vector
      * @return the result
      */
     public final double[] process(double[] inputs){
-        double[] ret = compute(regularizeInstance(inputs));
-        if(outputMap.equals(SCALED) && ret.length > 1) {
+        return process(inputs, newWorkspace());
+    }
+
+    /**
+     * Compute the result given an input vector, using caller-provided scratch space.
+     * <p>The network's state is only read, so concurrent calls are safe as long as each thread uses its own workspace.</p>
+     *
+     * @param inputs the input vector
+     * @param workspace scratch space from {@link #newWorkspace()}
+     * @return the result
+     */
+    public final double[] process(double[] inputs, Workspace workspace){
+        double[] ret = new double[numOutputNodes()];
+        process(inputs, ret, workspace);
+        return ret;
+    }
+
+    /**
+     * Compute the result given an input vector into a caller-provided buffer.
+     * <p>Nothing is allocated: the normalized input and hidden activations live in the workspace.</p>
+     *
+     * @param inputs the input vector
+     * @param outputs the buffer receiving the result, of length {@link #numOutputNodes()}
+     * @param workspace scratch space from {@link #newWorkspace()}
+     */
+    public final void process(double[] inputs, double[] outputs, Workspace workspace){
+        double[] normalized = inputs;
+        if(!normalizationFolded){
+            normalized = workspace.normalized();
+            featureDescriptors.regulariseInstance(inputs, normalized);
+        }
+        compute(normalized, outputs, workspace);
+        mapOutput(outputs, 0, outputs.length);
+    }
+
+    /**
+     * Compute the results for a batch of input vectors.
+     *
+     * @param inputs the input vectors
+     * @return the results, one per input vector
+     */
+    public final double[][] processBatch(double[][] inputs){
+        int n = numInputNodes(), m = numOutputNodes();
+        double[] block = new double[inputs.length * n], results = new double[inputs.length * m];
+        for(int r=0; r<inputs.length; ++r){
+            System.arraycopy(inputs[r], 0, block, r*n, n);
+        }
+        processBatch(block, results, inputs.length);
+        double[][] ret = new double[inputs.length][];
+        for(int r=0; r<inputs.length; ++r){
+            ret[r] = new double[m];
+            System.arraycopy(results, r*m, ret[r], 0, m);
+        }
+        return ret;
+    }
+
+    /**
+     * Compute the results for a row-major batch of input vectors.
+     * <p>The batch is pushed through the network layer by layer, in blocks of rows split across the common fork-join
+     * pool. The network's state is only read.</p>
+     *
+     * @param inputs the row-major input vectors, rows*{@link #numInputNodes()} values
+     * @param outputs the row-major block receiving rows*{@link #numOutputNodes()} results
+     * @param rows the number of rows
+     */
+    public final void processBatch(double[] inputs, double[] outputs, int rows){
+        ForkJoinPool.commonPool().invoke(new BatchTask(inputs, outputs, 0, rows));
+    }
+
+    /**
+     * Process a range of rows of a batch on the current thread.
+     */
+    private void processBlock(double[] inputs, double[] outputs, int from, int to){
+        int n = numInputNodes(), m = numOutputNodes(), rows = to - from;
+        double[] normalized = new double[rows * n], results = new double[rows * m];
+        if(normalizationFolded){
+            System.arraycopy(inputs, from * n, normalized, 0, rows * n);
+        }else{
+            featureDescriptors.regulariseInstances(inputs, from * n, normalized, rows);
+        }
+        computeBatch(normalized, results, rows);
+        System.arraycopy(results, 0, outputs, from * m, rows * m);
+        for(int r=from; r<to; ++r){
+            mapOutput(outputs, r * m, m);
+        }
+    }
+
+    /**
+     * Apply the output map to one result in place.
+     */
+    private void mapOutput(double[] outputs, int offset, int length){
+        if(outputMap.equals(SCALED) && length > 1) {
             double acc = 0;
-            for (double val : ret) {
-                acc += val;
+            for (int i = offset; i < offset + length; i++) {
+                acc += outputs[i];
             }
             if (acc > 0) {
-                for (int i = 0; i < ret.length; i++) {
-                    ret[i] /= acc;
+                for (int i = offset; i < offset + length; i++) {
+                    outputs[i] /= acc;
                 }
             }
         }
-        return ret;
+    }
+
+    /**
+     * Splits a batch into blocks of rows processed in parallel.
+     */
+    private final class BatchTask extends RecursiveAction {
+        private static final long serialVersionUID = -766016911497635140L;
+        private final double[] inputs, outputs;
+        private final int from, to;
+
+        BatchTask(double[] inputs, double[] outputs, int from, int to) {
+            this.inputs = inputs;
+            this.outputs = outputs;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if(to - from <= BATCH_BLOCK){
+                processBlock(inputs, outputs, from, to);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new BatchTask(inputs, outputs, from, mid), new BatchTask(inputs, outputs, mid, to));
+        }
     }
 }
@@ -0,0 +1,159 @@
+package learners.perceptrons;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Data-parallel training loop for a {@link MultiLayerPerceptron}.
+ * <p>Each worker owns its batch buffers and gradients, so the only shared state is the layers' weights.</p>
+ */
+final class ParallelTrainer {
+    private final MultiLayerPerceptron network;
+    private final Perceptron[] layers;
+    private final int parallelism;
+    private final BatchBuffers[] buffers; /*per worker: the worker's shard of the batch*/
+    private final double[][][] gradWeights, gradBiases; /*per layer: every worker's gradient*/
+    private final ExecutorService executor;
+
+    /**
+     * Set up the workers.
+     *
+     * @param network the network to train
+     * @param layers the network's layers
+     * @param parallelism the number of workers
+     * @param shardCapacity the maximum number of rows a worker processes at once
+     */
+    ParallelTrainer(MultiLayerPerceptron network, Perceptron[] layers, int parallelism, int shardCapacity) {
+        this.network = network;
+        this.layers = layers;
+        this.parallelism = parallelism;
+        buffers = new BatchBuffers[parallelism];
+        gradWeights = new double[layers.length][parallelism][];
+        gradBiases = new double[layers.length][parallelism][];
+        for(int w=0; w<parallelism; ++w){
+            buffers[w] = new BatchBuffers(layers, shardCapacity);
+            for(int l=0; l<layers.length; ++l){
+                gradWeights[l][w] = buffers[w].gradWeights[l];
+                gradBiases[l][w] = buffers[w].gradBiases[l];
+            }
+        }
+        final AtomicInteger count = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(parallelism, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "nn-train-" + count.getAndIncrement());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Train one epoch with synchronous gradient averaging.
+     * <p>Every batch is split across the workers, which compute gradients against the same weights; the gradients are
+     * then summed and applied as one update, each worker reducing its own slice of every layer.</p>
+     *
+     * @param attributes the normalized training rows
+     * @param targets the corresponding targets
+     * @param batchSize the number of rows per update
+     * @param rate the learning rate
+     */
+    void synchronousEpoch(double[][] attributes, double[][] targets, int batchSize, double rate) {
+        for(int from=0; from<attributes.length; from+=batchSize){
+            final int start = from, rows = Math.min(batchSize, attributes.length - from);
+            final int parts = Math.min(parallelism, rows);
+            final double scale = rate / rows;
+            List<Callable<Void>> tasks = new ArrayList<>(parallelism);
+            for(int w=0; w<parts; ++w){
+                final int worker = w;
+                tasks.add(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        int shardFrom = start + rows * worker / parts, shardTo = start + rows * (worker + 1) / parts;
+                        buffers[worker].pack(attributes, targets, shardFrom, shardTo - shardFrom);
+                        network.computeGradients(buffers[worker], shardTo - shardFrom);
+                        return null;
+                    }
+                });
+            }
+            runAll(tasks);
+            tasks.clear();
+            for(int w=0; w<parallelism; ++w){
+                final int worker = w;
+                tasks.add(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        for(int l=0; l<layers.length; ++l){
+                            layers[l].applyGradients(gradWeights[l], gradBiases[l], parts, scale, worker, parallelism);
+                        }
+                        return null;
+                    }
+                });
+            }
+            runAll(tasks);
+        }
+    }
+
+    /**
+     * Train one epoch Hogwild-style.
+     * <p>Each worker walks its own contiguous shard of the epoch in mini-batches and applies its updates to the shared
+     * weights without locking. Concurrent updates may overwrite each other; with sparse interference this converges
+     * like sequential training while scaling with the number of workers.</p>
+     *
+     * @param attributes the normalized training rows
+     * @param targets the corresponding targets
+     * @param batchSize the number of rows per update
+     * @param rate the learning rate
+     */
+    void hogwildEpoch(final double[][] attributes, final double[][] targets, final int batchSize, final double rate) {
+        List<Callable<Void>> tasks = new ArrayList<>(parallelism);
+        for(int w=0; w<parallelism; ++w){
+            final int worker = w;
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    int shardFrom = (int)((long)attributes.length * worker / parallelism);
+                    int shardTo = (int)((long)attributes.length * (worker + 1) / parallelism);
+                    BatchBuffers batch = buffers[worker];
+                    for(int from=shardFrom; from<shardTo; from+=batchSize){
+                        int rows = Math.min(batchSize, shardTo - from);
+                        batch.pack(attributes, targets, from, rows);
+                        network.computeGradients(batch, rows);
+                        for(int l=0; l<layers.length; ++l){
+                            layers[l].applyGradient(batch.gradWeights[l], batch.gradBiases[l], rate / rows);
+                        }
+                    }
+                    return null;
+                }
+            });
+        }
+        runAll(tasks);
+    }
+
+    /**
+     * Stop the workers.
+     */
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private void runAll(List<Callable<Void>> tasks) {
+        try {
+            for(Future<Void> f : executor.invokeAll(tasks)){
+                f.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while training.", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Training worker failed.", e.getCause());
+        }
+    }
+}
@@ -1,15 +1,22 @@
 package learners.perceptrons;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.util.Arrays;
 import java.util.Random;
 
 public class Perceptron extends NeuralNetwork {
 
-    private double[][] weights; /*the network's current weights*/
-    private double[] currentInputs; /*the pending input*/
-    private double[] currentOutputs; /*the output from the last computation*/
-    private double[] errors; /*the errors from the last computation*/
-    private double[] deltas; /*the weight updates for the next adjustment*/
+    private static final long serialVersionUID = 3459388032145901610L;
+    private static final Kernels KERNELS = Kernels.get();
+    private static final int OUTPUT_TILE = 64; /*output nodes processed per pass over a row block, keeping the weight rows cache-resident*/
+
+    private double[] weightBlock; /*the network's current weights, output-major: weightBlock[i*numInputs + j] links input j to output i*/
+    private double[] biases; /*the weights from the threshold node to each output node*/
+    private transient double[] currentInputs; /*the pending input*/
+    private transient double[] currentOutputs; /*the output from the last computation*/
+    private transient double[] errors; /*the errors from the last computation*/
+    private transient double[] deltas; /*the weight updates for the next adjustment*/
     private Random random;
     private String name;
 
@@ -25,7 +32,9 @@ public class Perceptron extends NeuralNetwork {
 
     protected void setError(int i, double error) {errors[i] = error;}
 
+    @Override
     public int numInputNodes() {return numInputs;}
+    @Override
     public int numOutputNodes() {return numOutputs;}
     public int threshold() {return numInputNodes();}
 
@@ -44,20 +53,46 @@ public class Perceptron extends NeuralNetwork {
         this.activationFunction = activationFunction;
         random = new Random();
         random.setSeed(1);
+        weightBlock = new double[numInputNodes() * numOutputNodes()];
+        biases = new double[numOutputNodes()];
         initialize();
         for (int i = 0; i < numOutputNodes(); ++i) {
+            int row = i * numInputNodes();
             for (int j = 0; j < numInputNodes(); ++j) {
-                weights[j][i] = (2 * random.nextDouble() - 1);
+                weightBlock[row + j] = (2 * random.nextDouble() - 1);
             }
-            weights[threshold()][i] = 1;
+            biases[i] = 1;
         }
     }
 
+    /**
+     * Construct a perceptron around existing weights.
+     *
+     * @param name the unit's name
+     * @param numIn the number of input nodes
+     * @param numOut the number of output nodes
+     * @param activationFunction the activation function for this unit.
+     * @param weightBlock the output-major weights, which the perceptron takes ownership of
+     * @param biases the weights from the threshold node, which the perceptron takes ownership of
+     * @param threshold the threshold node's input
+     */
+    Perceptron(String name, int numIn, int numOut, ActivationFunction activationFunction, double[] weightBlock, double[] biases, double threshold) {
+        this.name = name;
+        numInputs = numIn;
+        numOutputs = numOut;
+        this.activationFunction = activationFunction;
+        random = new Random();
+        random.setSeed(1);
+        this.weightBlock = weightBlock;
+        this.biases = biases;
+        this.threshold = threshold;
+        initialize();
+    }
+
     /**
      * Initialize network's internal state.
      */
     private void initialize() {
-        weights = new double[numInputNodes()+1][numOutputNodes()];
         currentOutputs = new double[numOutputNodes()];
         errors = new double[numOutputNodes()];
         deltas = new double[numOutputNodes()];
@@ -65,7 +100,56 @@ public class Perceptron extends NeuralNetwork {
     }
 
     public double getWeightFromTo(int inputNode, int outputNode) {
-        return weights[inputNode][outputNode];
+        if(inputNode == threshold()){
+            return biases[outputNode];
+        }
+        return weightBlock[outputNode * numInputNodes() + inputNode];
+    }
+
+    double[] weightBlock() {
+        return weightBlock;
+    }
+
+    double[] biases() {
+        return biases;
+    }
+
+    double thresholdInput() {
+        return threshold;
+    }
+
+    ActivationFunction activationFunction() {
+        return activationFunction;
+    }
+
+    /**
+     * Build a copy of this layer with its own weights.
+     * @return the copy
+     */
+    Perceptron copy() {
+        return new Perceptron(name, numInputs, numOutputs, activationFunction, weightBlock.clone(), biases.clone(), threshold);
+    }
+
+    /**
+     * Build a copy of this layer that takes raw inputs, with an affine input normalization folded into its weights.
+     * <p>For x' = (x - c)/s, the weighted sum w.x' + t*b equals (w/s).x + t*(b - (w.(c/s))/t), so the copy computes
+     * the same outputs from x as this layer does from x'.</p>
+     * @param centers the normalization centers c
+     * @param scales the normalization scales s
+     * @return the folded copy
+     */
+    Perceptron foldInput(double[] centers, double[] scales) {
+        Perceptron ret = copy();
+        for(int i=0, row=0; i<numOutputs; ++i, row+=numInputs){
+            double shift = 0;
+            for(int j=0; j<numInputs; ++j){
+                double w = weightBlock[row + j] / scales[j];
+                ret.weightBlock[row + j] = w;
+                shift += w * centers[j];
+            }
+            ret.biases[i] = biases[i] - shift / threshold;
+        }
+        return ret;
     }
 
     protected void setActivationFunction(ActivationFunction activationFunction) {
@@ -86,35 +170,207 @@ public class Perceptron extends NeuralNetwork {
     @Override
     public double[] compute(double[] inputs) {
         System.arraycopy(inputs, 0, currentInputs, 0, inputs.length);
-        for(int i=0; i<numOutputNodes(); ++i){
-            double output = 0.0;
-            for(int j=0; j<numInputNodes(); ++j){
-                output += currentInputs[j] * weights[j][i];
-            }
-            output += threshold * weights[threshold()][i];
-            currentOutputs[i] = activationFunction.computeOutput(output);
+        for(int i=0, row=0; i<numOutputNodes(); ++i, row+=numInputNodes()){
+            currentOutputs[i] = KERNELS.dot(currentInputs, 0, weightBlock, row, numInputNodes()) + threshold * biases[i];
         }
+        activationFunction.apply(currentOutputs, currentOutputs, numOutputNodes());
         double ret[] = new double[currentOutputs.length];
         System.arraycopy(currentOutputs, 0, ret, 0, ret.length);
         return ret;
     }
 
+    /**
+     * {@See {@link NeuralNetwork#compute(double[], double[], Workspace)}}
+     * <p>Only the weights are read, so this is safe to call concurrently.</p>
+     * @param inputs the normalized instance
+     * @param outputs the buffer receiving the layer's activations
+     * @param workspace unused: a single layer needs no intermediate storage
+     */
+    @Override
+    protected void compute(double[] inputs, double[] outputs, Workspace workspace) {
+        for(int i=0, row=0; i<numOutputNodes(); ++i, row+=numInputNodes()){
+            outputs[i] = KERNELS.dot(inputs, 0, weightBlock, row, numInputNodes()) + threshold * biases[i];
+        }
+        activationFunction.apply(outputs, outputs, numOutputNodes());
+    }
+
     /**
      * Update the network's weights.
      *
      * @param rate the current learning rate
      */
     public void updateWeights(double rate) {
-        for(int i = 0; i<numOutputNodes(); ++i){
-            deltas[i] = rate * error(i) * activationFunction.computeGradient(output(i));
-            for(int j = 0; j<numInputNodes(); ++j){
-                weights[j][i] += deltas[i] * input(j);
-            }
-            weights[threshold()][i] += deltas[i] * threshold;
+        activationFunction.gradient(currentOutputs, deltas, numOutputNodes());
+        for(int i = 0, row = 0; i<numOutputNodes(); ++i, row+=numInputNodes()){
+            deltas[i] = rate * error(i) * deltas[i];
+            KERNELS.axpy(deltas[i], currentInputs, 0, weightBlock, row, numInputNodes());
+            biases[i] += deltas[i] * threshold;
         }
         resetInputs();
     }
 
+    /**
+     * Compute the layer's activations for a block of rows.
+     * <p>This is a blocked matrix-matrix product: each weight row is reused across four input rows before moving on.</p>
+     *
+     * @param inputs the row-major input block, holding rows*numInputNodes() values
+     * @param outputs the row-major output block receiving rows*numOutputNodes() activations
+     * @param rows the number of rows in the block
+     */
+    @Override
+    protected void computeBatch(double[] inputs, double[] outputs, int rows) {
+        int n = numInputNodes(), m = numOutputNodes();
+        double[] sums = new double[4];
+        for(int i0=0; i0<m; i0+=OUTPUT_TILE){
+            int i1 = Math.min(m, i0 + OUTPUT_TILE);
+            int r = 0;
+            for(; r+4<=rows; r+=4){
+                int y0 = r*m, y1 = y0+m, y2 = y1+m, y3 = y2+m;
+                for(int i=i0, row=i0*n; i<i1; ++i, row+=n){
+                    KERNELS.dot4(weightBlock, row, inputs, r*n, n, n, sums);
+                    double bias = threshold * biases[i];
+                    outputs[y0 + i] = sums[0] + bias;
+                    outputs[y1 + i] = sums[1] + bias;
+                    outputs[y2 + i] = sums[2] + bias;
+                    outputs[y3 + i] = sums[3] + bias;
+                }
+            }
+            for(; r<rows; ++r){
+                int x = r*n, y = r*m;
+                for(int i=i0, row=i0*n; i<i1; ++i, row+=n){
+                    outputs[y + i] = KERNELS.dot(inputs, x, weightBlock, row, n) + threshold * biases[i];
+                }
+            }
+        }
+        activationFunction.apply(outputs, outputs, rows*m);
+    }
+
+    /**
+     * Compute the output layer's deltas for a block of rows.
+     *
+     * @param outputs the activations from {@link #computeBatch(double[], double[], int)}
+     * @param targets the row-major target block
+     * @param deltas the row-major block receiving the deltas
+     * @param rows the number of rows in the block
+     */
+    void outputDeltas(double[] outputs, double[] targets, double[] deltas, int rows) {
+        activationFunction.gradient(outputs, deltas, rows*numOutputNodes());
+        for(int k=0; k<rows*numOutputNodes(); ++k){
+            deltas[k] *= targets[k] - outputs[k];
+        }
+    }
+
+    /**
+     * Scale back-propagated errors by the gradient of this layer's activation, turning them into deltas.
+     *
+     * @param outputs the layer's activations for the block
+     * @param errors the back-propagated errors, overwritten with the deltas
+     * @param rows the number of rows in the block
+     */
+    void hiddenDeltas(double[] outputs, double[] errors, int rows) {
+        activationFunction.multiplyGradient(outputs, errors, rows*numOutputNodes());
+    }
+
+    /**
+     * Propagate a block of deltas back to the previous layer: {@code errors = deltas x weights}.
+     *
+     * @param deltas the row-major block of this layer's deltas
+     * @param errors the row-major block receiving rows*numInputNodes() errors for the previous layer
+     * @param rows the number of rows in the block
+     */
+    void backpropagateBatch(double[] deltas, double[] errors, int rows) {
+        int n = numInputNodes(), m = numOutputNodes();
+        Arrays.fill(errors, 0, rows*n, 0.0);
+        int r = 0;
+        for(; r+4<=rows; r+=4){
+            int d0 = r*m, d1 = d0+m, d2 = d1+m, d3 = d2+m;
+            for(int i=0, row=0; i<m; ++i, row+=n){
+                KERNELS.axpy4(deltas[d0 + i], deltas[d1 + i], deltas[d2 + i], deltas[d3 + i], weightBlock, row, errors, r*n, n, n);
+            }
+        }
+        for(; r<rows; ++r){
+            int d = r*m;
+            for(int i=0, row=0; i<m; ++i, row+=n){
+                KERNELS.axpy(deltas[d + i], weightBlock, row, errors, r*n, n);
+            }
+        }
+    }
+
+    /**
+     * Compute the weight gradient summed over a block of rows.
+     *
+     * @param inputs the row-major block of this layer's inputs
+     * @param deltas the row-major block of this layer's deltas
+     * @param rows the number of rows in the block
+     * @param gradWeights receives the gradient of the weight block
+     * @param gradBiases receives the gradient of the threshold weights
+     */
+    void gradient(double[] inputs, double[] deltas, int rows, double[] gradWeights, double[] gradBiases) {
+        int n = numInputNodes(), m = numOutputNodes();
+        Arrays.fill(gradWeights, 0.0);
+        Arrays.fill(gradBiases, 0.0);
+        for(int i=0, row=0; i<m; ++i, row+=n){
+            int r = 0;
+            double biasGrad = 0.0;
+            for(; r+4<=rows; r+=4){
+                double a0 = deltas[r*m + i], a1 = deltas[(r+1)*m + i], a2 = deltas[(r+2)*m + i], a3 = deltas[(r+3)*m + i];
+                KERNELS.gaxpy4(a0, a1, a2, a3, inputs, r*n, n, gradWeights, row, n);
+                biasGrad += a0 + a1 + a2 + a3;
+            }
+            for(; r<rows; ++r){
+                double a = deltas[r*m + i];
+                KERNELS.axpy(a, inputs, r*n, gradWeights, row, n);
+                biasGrad += a;
+            }
+            gradBiases[i] = biasGrad * threshold;
+        }
+    }
+
+    /**
+     * Apply a gradient to the layer's weights.
+     *
+     * @param gradWeights the gradient of the weight block
+     * @param gradBiases the gradient of the threshold weights
+     * @param scale the step size, typically the learning rate divided by the batch size
+     */
+    void applyGradient(double[] gradWeights, double[] gradBiases, double scale) {
+        KERNELS.axpy(scale, gradWeights, 0, weightBlock, 0, weightBlock.length);
+        for(int i=0; i<biases.length; ++i){
+            biases[i] += scale * gradBiases[i];
+        }
+    }
+
+    /**
+     * Apply the sum of several gradients to one slice of the layer's weights.
+     * <p>Workers reducing distinct slices touch disjoint weights, so the slices can be applied concurrently.</p>
+     *
+     * @param gradWeights the gradients of the weight block, one per worker
+     * @param gradBiases the gradients of the threshold weights, one per worker
+     * @param numGradients the number of gradients to sum
+     * @param scale the step size, typically the learning rate divided by the batch size
+     * @param part the slice to update
+     * @param parts the number of slices the weights are split into
+     */
+    void applyGradients(double[][] gradWeights, double[][] gradBiases, int numGradients, double scale, int part, int parts) {
+        int from = (int)((long)weightBlock.length * part / parts), to = (int)((long)weightBlock.length * (part + 1) / parts);
+        for(int k=from; k<to; ++k){
+            double sum = 0.0;
+            for(int g=0; g<numGradients; ++g){
+                sum += gradWeights[g][k];
+            }
+            weightBlock[k] += scale * sum;
+        }
+        from = biases.length * part / parts;
+        to = biases.length * (part + 1) / parts;
+        for(int i=from; i<to; ++i){
+            double sum = 0.0;
+            for(int g=0; g<numGradients; ++g){
+                sum += gradBiases[g][i];
+            }
+            biases[i] += scale * sum;
+        }
+    }
+
     /**
      * Iterate with one training episode.
      *
@@ -124,6 +380,7 @@ public class Perceptron extends NeuralNetwork {
      */
     @Override
     public void train(double[] inputs, double[] targets, double rate) {
+        checkTrainable();
         compute(inputs);
         for (int i = 0; i < numOutputNodes(); ++i) {
             setError(i, targets[i] - output(i));
@@ -131,16 +388,47 @@ public class Perceptron extends NeuralNetwork {
         updateWeights(rate);
     }
 
-    private String printR(double[][] arr){
+    private String printR(double[] block, int rowLen){
         String ret = "{";
-        for(double[] r : arr){
-            ret += Arrays.toString(r) + ", ";
+        for(int i=0; i<block.length; i+=rowLen){
+            ret += Arrays.toString(Arrays.copyOfRange(block, i, i + rowLen)) + ", ";
         }
         ret += "}";
         return ret;
     }
 
     public void printErrors(){
-        System.out.println(name + ": " + printR(weights) + "; => " + Arrays.toString(currentInputs));
+        System.out.println(name + ": " + printR(weightBlock, numInputNodes()) + " + " + Arrays.toString(biases) + "; => " + Arrays.toString(currentInputs));
+    }
+
+    /**
+     * Restore a serialized perceptron.
+     * <p>Models saved before the flat weight layout carry a {@code double[numIn+1][numOut]} matrix, which is converted here.</p>
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        name = (String) fields.get("name", null);
+        random = (Random) fields.get("random", null);
+        numInputs = fields.get("numInputs", 0);
+        numOutputs = fields.get("numOutputs", 0);
+        threshold = fields.get("threshold", -2.0);
+        activationFunction = (ActivationFunction) fields.get("activationFunction", null);
+        weightBlock = (double[]) fields.get("weightBlock", null);
+        biases = (double[]) fields.get("biases", null);
+        if(weightBlock == null){
+            double[][] legacyWeights = (double[][]) fields.get("weights", null);
+            if(legacyWeights == null){
+                throw new IOException("Missing weights for perceptron " + name);
+            }
+            weightBlock = new double[numInputNodes() * numOutputNodes()];
+            biases = new double[numOutputNodes()];
+            for(int i=0; i<numOutputNodes(); ++i){
+                for(int j=0; j<numInputNodes(); ++j){
+                    weightBlock[i * numInputNodes() + j] = legacyWeights[j][i];
+                }
+                biases[i] = legacyWeights[threshold()][i];
+            }
+        }
+        initialize();
     }
 }
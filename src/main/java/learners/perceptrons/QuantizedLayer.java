@@ -0,0 +1,186 @@
+package learners.perceptrons;
+
+import java.io.Serializable;
+
+/**
+ * An inference-only copy of a {@link Perceptron} with compressed weights.
+ * <p>Int8 layers keep one byte per weight and a scale per output row; inputs are quantized on the fly so the dot
+ * products accumulate in integers. Float16 layers keep two bytes per weight and accumulate in doubles.</p>
+ */
+final class QuantizedLayer implements Serializable {
+    private static final long serialVersionUID = 7381164021552749017L;
+
+    private final int numInputs, numOutputs;
+    private final byte[] int8Weights; /*output-major int8 weights, or null for float16 layers*/
+    private final float[] rowScales; /*per output row: the value of one int8 step*/
+    private final short[] halfWeights; /*output-major float16 weights, or null for int8 layers*/
+    private final double[] biases;
+    private final double threshold;
+    private final ActivationFunction activationFunction;
+
+    /**
+     * Quantize a trained layer.
+     *
+     * @param layer the trained layer
+     * @param scheme the weight encoding
+     */
+    QuantizedLayer(Perceptron layer, QuantizedNetwork.Scheme scheme) {
+        numInputs = layer.numInputNodes();
+        numOutputs = layer.numOutputNodes();
+        biases = layer.biases().clone();
+        threshold = layer.thresholdInput();
+        activationFunction = layer.activationFunction();
+        double[] weights = layer.weightBlock();
+        if(scheme == QuantizedNetwork.Scheme.FLOAT16){
+            int8Weights = null;
+            rowScales = null;
+            halfWeights = new short[weights.length];
+            for(int k=0; k<weights.length; k++){
+                halfWeights[k] = toHalf((float) weights[k]);
+            }
+            return;
+        }
+        halfWeights = null;
+        int8Weights = new byte[weights.length];
+        rowScales = new float[numOutputs];
+        double layerMax = 0;
+        for(double w : weights){
+            layerMax = Math.max(layerMax, Math.abs(w));
+        }
+        for(int i=0, row=0; i<numOutputs; i++, row+=numInputs){
+            double rowMax = layerMax;
+            if(scheme == QuantizedNetwork.Scheme.INT8_PER_ROW){
+                rowMax = 0;
+                for(int j=0; j<numInputs; j++){
+                    rowMax = Math.max(rowMax, Math.abs(weights[row + j]));
+                }
+            }
+            rowScales[i] = rowMax > 0 ? (float)(rowMax / 127) : 1f;
+            for(int j=0; j<numInputs; j++){
+                int8Weights[row + j] = (byte) Math.max(-127, Math.min(127, Math.round(weights[row + j] / rowScales[i])));
+            }
+        }
+    }
+
+    int numInputNodes() {
+        return numInputs;
+    }
+
+    int numOutputNodes() {
+        return numOutputs;
+    }
+
+    /**
+     * Compute the layer's activations.
+     *
+     * @param inputs the layer's input
+     * @param outputs the buffer receiving the activations
+     * @param workspace scratch space holding the quantized input
+     */
+    void compute(double[] inputs, double[] outputs, Workspace workspace) {
+        if(int8Weights != null){
+            computeInt8(inputs, outputs, workspace.quantized(numInputs));
+        }else{
+            computeHalf(inputs, outputs);
+        }
+        activationFunction.apply(outputs, outputs, numOutputs);
+    }
+
+    private void computeInt8(double[] inputs, double[] outputs, byte[] quantized) {
+        double inputMax = 0;
+        for(int j=0; j<numInputs; j++){
+            inputMax = Math.max(inputMax, Math.abs(inputs[j]));
+        }
+        double inputScale = inputMax > 0 ? inputMax / 127 : 1;
+        for(int j=0; j<numInputs; j++){
+            quantized[j] = (byte) Math.round(inputs[j] / inputScale);
+        }
+        for(int i=0, row=0; i<numOutputs; i++, row+=numInputs){
+            int acc = 0;
+            for(int j=0; j<numInputs; j++){
+                acc += int8Weights[row + j] * quantized[j];
+            }
+            outputs[i] = acc * (rowScales[i] * inputScale) + threshold * biases[i];
+        }
+    }
+
+    private void computeHalf(double[] inputs, double[] outputs) {
+        float[] table = HalfTable.VALUES;
+        for(int i=0, row=0; i<numOutputs; i++, row+=numInputs){
+            double acc = 0;
+            for(int j=0; j<numInputs; j++){
+                acc += table[halfWeights[row + j] & 0xffff] * inputs[j];
+            }
+            outputs[i] = acc + threshold * biases[i];
+        }
+    }
+
+    /**
+     * Get the heap footprint of the layer's weights.
+     * @return the number of bytes
+     */
+    long weightBytes() {
+        long bytes = biases.length * 8L;
+        if(int8Weights != null){
+            bytes += int8Weights.length + rowScales.length * 4L;
+        }else{
+            bytes += halfWeights.length * 2L;
+        }
+        return bytes;
+    }
+
+    /**
+     * Encode a float as IEEE 754 binary16, rounding to nearest even.
+     */
+    static short toHalf(float f) {
+        int bits = Float.floatToRawIntBits(f);
+        int sign = (bits >>> 16) & 0x8000;
+        int abs = bits & 0x7fffffff;
+        if(abs > 0x7f800000){
+            return (short)(sign | 0x7e00);
+        }
+        if(abs >= 0x477ff000){
+            return (short)(sign | 0x7c00);
+        }
+        if(abs < 0x38800000){
+            return (short)(sign | Math.round(Float.intBitsToFloat(abs) * 0x1p24f));
+        }
+        int mantissa = abs & 0x7fffff;
+        int half = (((abs >>> 23) - 112) << 10) | (mantissa >>> 13);
+        int rest = mantissa & 0x1fff;
+        if(rest > 0x1000 || (rest == 0x1000 && (half & 1) != 0)){
+            half++;
+        }
+        return (short)(sign | half);
+    }
+
+    /**
+     * Decode an IEEE 754 binary16 value.
+     */
+    static float fromHalf(short h) {
+        int bits = h & 0xffff;
+        int sign = (bits & 0x8000) << 16;
+        int exponent = (bits >>> 10) & 0x1f;
+        int mantissa = bits & 0x3ff;
+        if(exponent == 0x1f){
+            return Float.intBitsToFloat(sign | 0x7f800000 | (mantissa << 13));
+        }
+        if(exponent == 0){
+            float value = mantissa * 0x1p-24f;
+            return sign != 0 ? -value : value;
+        }
+        return Float.intBitsToFloat(sign | ((exponent + 112) << 23) | (mantissa << 13));
+    }
+
+    /**
+     * Every binary16 value decoded once, so float16 dot products are a table lookup per weight.
+     */
+    private static final class HalfTable {
+        static final float[] VALUES = new float[1 << 16];
+        static {
+            for(int i=0; i<VALUES.length; i++){
+                VALUES[i] = fromHalf((short) i);
+            }
+        }
+    }
+}
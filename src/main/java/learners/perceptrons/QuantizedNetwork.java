@@ -0,0 +1,92 @@
+package learners.perceptrons;
+
+/**
+ * An inference-only network with compressed weights, built from a trained {@link MultiLayerPerceptron}.
+ * <p>The network keeps the source network's input normalization and output map. It is frozen: any attempt to train
+ * it fails.</p>
+ */
+public class QuantizedNetwork extends NeuralNetwork {
+    private static final long serialVersionUID = -2260377598119735144L;
+
+    public enum Scheme {
+        INT8_PER_LAYER /*int8 weights with one scale per layer*/,
+        INT8_PER_ROW /*int8 weights with one scale per output node*/,
+        FLOAT16 /*IEEE 754 half-precision weights*/
+    }
+
+    private final QuantizedLayer[] layers;
+
+    /**
+     * Quantize a trained network.
+     *
+     * @param source the trained network
+     * @param scheme the weight encoding
+     */
+    public QuantizedNetwork(MultiLayerPerceptron source, Scheme scheme) {
+        Perceptron[] sourceLayers = source.layers();
+        layers = new QuantizedLayer[sourceLayers.length];
+        for(int i=0; i<layers.length; ++i){
+            layers[i] = new QuantizedLayer(sourceLayers[i], scheme);
+        }
+        inheritPreprocessing(source);
+        freeze();
+    }
+
+    /**
+     * Get the heap footprint of the network's weights.
+     * @return the number of bytes
+     */
+    public long weightBytes() {
+        long bytes = 0;
+        for(QuantizedLayer layer : layers){
+            bytes += layer.weightBytes();
+        }
+        return bytes;
+    }
+
+    @Override
+    protected double[] compute(double[] inputs) {
+        double[] ret = new double[numOutputNodes()];
+        compute(inputs, ret, newWorkspace());
+        return ret;
+    }
+
+    @Override
+    protected void compute(double[] inputs, double[] outputs, Workspace workspace) {
+        double[] layerInput = inputs;
+        for(int i=0; i<layers.length - 1; ++i){
+            layers[i].compute(layerInput, workspace.activations(i), workspace);
+            layerInput = workspace.activations(i);
+        }
+        layers[layers.length - 1].compute(layerInput, outputs, workspace);
+    }
+
+    @Override
+    public int numInputNodes() {
+        return layers[0].numInputNodes();
+    }
+
+    @Override
+    public int numOutputNodes() {
+        return layers[layers.length - 1].numOutputNodes();
+    }
+
+    @Override
+    public Workspace newWorkspace() {
+        int[] widths = new int[layers.length - 1];
+        for(int i=0; i<widths.length; ++i){
+            widths[i] = layers[i].numOutputNodes();
+        }
+        return new Workspace(numInputNodes(), widths, numOutputNodes());
+    }
+
+    @Override
+    public void train(double[] inputs, double[] targets, double rate) {
+        checkTrainable();
+    }
+
+    @Override
+    public void printErrors() {
+        System.out.println("Quantized network: " + layers.length + " layers, " + weightBytes() + " bytes of weights");
+    }
+}
@@ -0,0 +1,133 @@
+package learners.perceptrons;
+
+import static learners.perceptrons.NeuralNetwork.ParallelMode.SYNCHRONOUS;
+
+/**
+ * Tuning knobs for {@link NeuralNetwork#trainNetwork(double[][], double[][], int, double, NeuralNetwork.FeatureDescriptionOptions, NeuralNetwork.OutputMap, TrainingOptions)}.
+ * <p>The defaults train on one row at a time on the caller's thread.</p>
+ */
+public class TrainingOptions {
+    private int batchSize = 1;
+    private int parallelism = 1;
+    private NeuralNetwork.ParallelMode parallelMode = SYNCHRONOUS;
+    private int chunkSize = 16384;
+    private int prefetch = 0;
+    private boolean shuffle = false;
+    private long seed = 0;
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Set the number of rows per weight update.
+     * <p>Training on each row in turn and training in mini-batches apply different update rules, see
+     * {@link NeuralNetwork#trainNetwork(double[][], double[][], int, double, NeuralNetwork.FeatureDescriptionOptions, NeuralNetwork.OutputMap, int)}.</p>
+     * @param batchSize the mini-batch size; 1 trains on each row in turn
+     * @return these options
+     */
+    public TrainingOptions setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Set the number of worker threads sharing each epoch.
+     * <p>Parallel workers always apply the mini-batch update rule, even with a batch size of 1. In
+     * {@link NeuralNetwork.ParallelMode#SYNCHRONOUS} mode the batch size is also raised to the parallelism, so that every
+     * worker gets a row.</p>
+     * @param parallelism the number of workers; 1 trains on the caller's thread
+     * @return these options
+     */
+    public TrainingOptions setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    public NeuralNetwork.ParallelMode getParallelMode() {
+        return parallelMode;
+    }
+
+    /**
+     * Set how parallel workers combine their updates.
+     * @param parallelMode the update strategy
+     * @return these options
+     */
+    public TrainingOptions setParallelMode(NeuralNetwork.ParallelMode parallelMode) {
+        this.parallelMode = parallelMode;
+        return this;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Set the number of rows held in memory at once when training from a {@link learners.core.eval.Dataset}, or
+     * prepared at once by the background input pipeline.
+     * @param chunkSize the number of rows read from the dataset per step
+     * @return these options
+     */
+    public TrainingOptions setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+        return this;
+    }
+
+    public int getPrefetch() {
+        return prefetch;
+    }
+
+    /**
+     * Set the number of blocks of rows normalized ahead of training on a background thread.
+     * <p>Blocks hold {@link #getChunkSize()} rows, rounded up to whole batches, and only the blocks in flight are kept
+     * normalized instead of a normalized copy of the whole dataset.</p>
+     * @param prefetch the number of blocks prepared ahead; 0 normalizes on the caller's thread
+     * @return these options
+     */
+    public TrainingOptions setPrefetch(int prefetch) {
+        this.prefetch = prefetch;
+        return this;
+    }
+
+    public boolean isShuffle() {
+        return shuffle;
+    }
+
+    /**
+     * Set whether the rows are visited in a new random order every epoch.
+     * <p>Shuffling is done by the background input pipeline, which it enables with at least one prefetched block.
+     * Rows of a {@link learners.core.eval.Dataset} are shuffled within each block.</p>
+     * @param shuffle true to shuffle the rows
+     * @return these options
+     */
+    public TrainingOptions setShuffle(boolean shuffle) {
+        this.shuffle = shuffle;
+        return this;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Set the seed of the shuffling order, so that training runs can be repeated.
+     * @param seed the seed
+     * @return these options
+     */
+    public TrainingOptions setSeed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    /**
+     * Check whether training rows go through the background input pipeline.
+     * @return true if rows are prefetched or shuffled
+     */
+    boolean isPipelined() {
+        return prefetch > 0 || shuffle;
+    }
+}
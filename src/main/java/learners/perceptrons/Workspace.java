@@ -0,0 +1,74 @@
+package learners.perceptrons;
+
+/**
+ * Scratch activations for one inference call.
+ * <p>A network never writes its own state while processing an instance through a workspace, so a single trained
+ * network can be shared by any number of threads as long as each thread uses its own workspace.</p>
+ * <p>Workspaces are not thread-safe: create one per call, or keep one per thread. Reusing a workspace across calls
+ * makes {@link NeuralNetwork#process(double[], double[], Workspace)} allocation-free.</p>
+ */
+public final class Workspace {
+    private final double[] input; /*staging buffer for the caller's input vector*/
+    private final double[] normalized; /*the normalized input vector*/
+    private final double[][] activations; /*per hidden layer: the layer's outputs*/
+    private final double[] output; /*staging buffer for the caller's result vector*/
+    private byte[] quantized; /*quantized layer inputs, for integer kernels*/
+
+    /**
+     * Allocate a workspace.
+     *
+     * @param numInputs the number of input nodes of the network
+     * @param layerWidths the number of output nodes of each hidden layer
+     * @param numOutputs the number of output nodes of the network
+     */
+    Workspace(int numInputs, int[] layerWidths, int numOutputs) {
+        input = new double[numInputs];
+        normalized = new double[numInputs];
+        activations = new double[layerWidths.length][];
+        for(int i=0; i<layerWidths.length; ++i){
+            activations[i] = new double[layerWidths[i]];
+        }
+        output = new double[numOutputs];
+    }
+
+    /**
+     * Get a buffer sized to the network's input, free for the caller to stage instances in.
+     * @return the input staging buffer
+     */
+    public double[] inputBuffer() {
+        return input;
+    }
+
+    /**
+     * Get a buffer sized to the network's output, free for the caller to receive results in.
+     * @return the output staging buffer
+     */
+    public double[] outputBuffer() {
+        return output;
+    }
+
+    double[] normalized() {
+        return normalized;
+    }
+
+    /**
+     * Get a buffer for quantized layer inputs; it is allocated on first use and then reused.
+     * @param len the minimum length
+     * @return the buffer
+     */
+    byte[] quantized(int len) {
+        if(quantized == null || quantized.length < len){
+            quantized = new byte[len];
+        }
+        return quantized;
+    }
+
+    /**
+     * Get the scratch buffer of a hidden layer.
+     * @param layer the layer's index
+     * @return the buffer receiving the layer's outputs
+     */
+    double[] activations(int layer) {
+        return activations[layer];
+    }
+}
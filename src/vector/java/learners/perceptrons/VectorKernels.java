@@ -0,0 +1,151 @@
+package learners.perceptrons;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The SIMD backend: fused multiply-add loops over the platform's preferred vector width.
+ * <p>This class is compiled against {@code jdk.incubator.vector} and only loaded by {@link Kernels} when that module
+ * is present at runtime.</p>
+ */
+final class VectorKernels extends Kernels {
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    @Override
+    String name() {
+        return "vector-" + SPECIES.vectorBitSize();
+    }
+
+    @Override
+    double dot(double[] x, int xOff, double[] y, int yOff, int len) {
+        DoubleVector acc = DoubleVector.zero(SPECIES);
+        int j = 0, bound = SPECIES.loopBound(len);
+        for(; j<bound; j+=SPECIES.length()){
+            acc = DoubleVector.fromArray(SPECIES, x, xOff + j).fma(DoubleVector.fromArray(SPECIES, y, yOff + j), acc);
+        }
+        double s = acc.reduceLanes(VectorOperators.ADD);
+        for(; j<len; ++j){
+            s += x[xOff + j] * y[yOff + j];
+        }
+        return s;
+    }
+
+    @Override
+    void dot4(double[] w, int wOff, double[] x, int xOff, int stride, int len, double[] sums) {
+        int x0 = xOff, x1 = x0 + stride, x2 = x1 + stride, x3 = x2 + stride;
+        DoubleVector acc0 = DoubleVector.zero(SPECIES), acc1 = acc0, acc2 = acc0, acc3 = acc0;
+        int j = 0, bound = SPECIES.loopBound(len);
+        for(; j<bound; j+=SPECIES.length()){
+            DoubleVector v = DoubleVector.fromArray(SPECIES, w, wOff + j);
+            acc0 = DoubleVector.fromArray(SPECIES, x, x0 + j).fma(v, acc0);
+            acc1 = DoubleVector.fromArray(SPECIES, x, x1 + j).fma(v, acc1);
+            acc2 = DoubleVector.fromArray(SPECIES, x, x2 + j).fma(v, acc2);
+            acc3 = DoubleVector.fromArray(SPECIES, x, x3 + j).fma(v, acc3);
+        }
+        double s0 = acc0.reduceLanes(VectorOperators.ADD), s1 = acc1.reduceLanes(VectorOperators.ADD);
+        double s2 = acc2.reduceLanes(VectorOperators.ADD), s3 = acc3.reduceLanes(VectorOperators.ADD);
+        for(; j<len; ++j){
+            double v = w[wOff + j];
+            s0 += x[x0 + j] * v;
+            s1 += x[x1 + j] * v;
+            s2 += x[x2 + j] * v;
+            s3 += x[x3 + j] * v;
+        }
+        sums[0] = s0;
+        sums[1] = s1;
+        sums[2] = s2;
+        sums[3] = s3;
+    }
+
+    @Override
+    void axpy(double alpha, double[] x, int xOff, double[] y, int yOff, int len) {
+        DoubleVector va = DoubleVector.broadcast(SPECIES, alpha);
+        int j = 0, bound = SPECIES.loopBound(len);
+        for(; j<bound; j+=SPECIES.length()){
+            DoubleVector.fromArray(SPECIES, x, xOff + j).fma(va, DoubleVector.fromArray(SPECIES, y, yOff + j)).intoArray(y, yOff + j);
+        }
+        for(; j<len; ++j){
+            y[yOff + j] += alpha * x[xOff + j];
+        }
+    }
+
+    @Override
+    void axpy4(double a0, double a1, double a2, double a3, double[] x, int xOff, double[] y, int yOff, int stride, int len) {
+        int y0 = yOff, y1 = y0 + stride, y2 = y1 + stride, y3 = y2 + stride;
+        DoubleVector v0 = DoubleVector.broadcast(SPECIES, a0), v1 = DoubleVector.broadcast(SPECIES, a1);
+        DoubleVector v2 = DoubleVector.broadcast(SPECIES, a2), v3 = DoubleVector.broadcast(SPECIES, a3);
+        int j = 0, bound = SPECIES.loopBound(len);
+        for(; j<bound; j+=SPECIES.length()){
+            DoubleVector v = DoubleVector.fromArray(SPECIES, x, xOff + j);
+            v.fma(v0, DoubleVector.fromArray(SPECIES, y, y0 + j)).intoArray(y, y0 + j);
+            v.fma(v1, DoubleVector.fromArray(SPECIES, y, y1 + j)).intoArray(y, y1 + j);
+            v.fma(v2, DoubleVector.fromArray(SPECIES, y, y2 + j)).intoArray(y, y2 + j);
+            v.fma(v3, DoubleVector.fromArray(SPECIES, y, y3 + j)).intoArray(y, y3 + j);
+        }
+        for(; j<len; ++j){
+            double v = x[xOff + j];
+            y[y0 + j] += a0 * v;
+            y[y1 + j] += a1 * v;
+            y[y2 + j] += a2 * v;
+            y[y3 + j] += a3 * v;
+        }
+    }
+
+    @Override
+    void gaxpy4(double a0, double a1, double a2, double a3, double[] x, int xOff, int stride, double[] y, int yOff, int len) {
+        int x0 = xOff, x1 = x0 + stride, x2 = x1 + stride, x3 = x2 + stride;
+        DoubleVector v0 = DoubleVector.broadcast(SPECIES, a0), v1 = DoubleVector.broadcast(SPECIES, a1);
+        DoubleVector v2 = DoubleVector.broadcast(SPECIES, a2), v3 = DoubleVector.broadcast(SPECIES, a3);
+        int j = 0, bound = SPECIES.loopBound(len);
+        for(; j<bound; j+=SPECIES.length()){
+            DoubleVector acc = DoubleVector.fromArray(SPECIES, y, yOff + j);
+            acc = DoubleVector.fromArray(SPECIES, x, x0 + j).fma(v0, acc);
+            acc = DoubleVector.fromArray(SPECIES, x, x1 + j).fma(v1, acc);
+            acc = DoubleVector.fromArray(SPECIES, x, x2 + j).fma(v2, acc);
+            acc = DoubleVector.fromArray(SPECIES, x, x3 + j).fma(v3, acc);
+            acc.intoArray(y, yOff + j);
+        }
+        for(; j<len; ++j){
+            y[yOff + j] += a0 * x[x0 + j] + a1 * x[x1 + j] + a2 * x[x2 + j] + a3 * x[x3 + j];
+        }
+    }
+
+    @Override
+    void sigmoid(double[] src, double[] dst, int len) {
+        int i = 0, bound = SPECIES.loopBound(len);
+        for(; i<bound; i+=SPECIES.length()){
+            DoubleVector v = DoubleVector.fromArray(SPECIES, src, i);
+            DoubleVector.broadcast(SPECIES, 1.0).div(v.neg().lanewise(VectorOperators.EXP).add(1.0)).intoArray(dst, i);
+        }
+        for(; i<len; i++){
+            dst[i] = 1.0 / (1.0 + Math.exp(-src[i]));
+        }
+    }
+
+    @Override
+    void tanh(double[] src, double[] dst, int len) {
+        int i = 0, bound = SPECIES.loopBound(len);
+        for(; i<bound; i+=SPECIES.length()){
+            DoubleVector.fromArray(SPECIES, src, i).lanewise(VectorOperators.TANH).intoArray(dst, i);
+        }
+        for(; i<len; i++){
+            dst[i] = Math.tanh(src[i]);
+        }
+    }
+
+    @Override
+    void relu(double[] src, double[] dst, int len) {
+        DoubleVector zero = DoubleVector.zero(SPECIES);
+        int i = 0, bound = SPECIES.loopBound(len);
+        for(; i<bound; i+=SPECIES.length()){
+            DoubleVector v = DoubleVector.fromArray(SPECIES, src, i);
+            VectorMask<Double> positive = v.compare(VectorOperators.GT, 0.0);
+            zero.blend(v, positive).intoArray(dst, i);
+        }
+        for(; i<len; i++){
+            dst[i] = src[i] > 0 ? src[i] : 0;
+        }
+    }
+}